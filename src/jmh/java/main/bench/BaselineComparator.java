@@ -0,0 +1,103 @@
+package main.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    compares a jmh json result with a saved baseline, benchmark by benchmark and parameter set by parameter set.
+    args : results file, baseline file, allowed slowdown in percent
+    exits with 1 when any benchmark got slower than allowed
+ */
+public class BaselineComparator {
+
+    public static void main(String[] args) throws IOException {
+        final Path results = Paths.get(args[0]);
+        final Path baseline = Paths.get(args[1]);
+        final double threshold = Double.parseDouble(args[2]) / 100;
+        if (Files.notExists(baseline)) {
+            System.out.println("No baseline at : " + baseline + ", save one with jmhBaseline");
+            return;
+        }
+        final Map<String, Score> current = read(results);
+        final Map<String, Score> previous = read(baseline);
+        int regressions = 0;
+        for (final Map.Entry<String, Score> entry : new TreeMap<>(current).entrySet()) {
+            final Score score = entry.getValue();
+            final Score base = previous.get(entry.getKey());
+            if (base == null) {
+                System.out.println(String.format("NEW        %s : %.3f %s", entry.getKey(), score.value, score.unit));
+                continue;
+            }
+            //positive when slower, whichever way the mode counts
+            final double change = score.higherIsBetter() ? (base.value - score.value) / base.value : (score.value - base.value) / base.value;
+            final boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format("%-10s %s : %.3f -> %.3f %s (%+.1f%% slower)", regressed ? "REGRESSED" : "OK",
+                    entry.getKey(), base.value, score.value, score.unit, change * 100));
+        }
+        System.out.println(regressions + " of " + current.size() + " benchmarks regressed by more than " + args[2] + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    //benchmark name with its parameters, to its score
+    private static Map<String, Score> read(final Path path) throws IOException {
+        final Map<String, Score> scores = new LinkedHashMap<>();
+        try (final Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            //instance parse, the static one is missing from the gson version of the build
+            final JsonArray runs = new JsonParser().parse(reader).getAsJsonArray();
+            for (final JsonElement element : runs) {
+                final JsonObject run = element.getAsJsonObject();
+                final StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    for (final Map.Entry<String, JsonElement> param : new TreeMap<>(toMap(run.getAsJsonObject("params"))).entrySet()) {
+                        key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+                final JsonObject metric = run.getAsJsonObject("primaryMetric");
+                scores.put(key.toString(), new Score(run.get("mode").getAsString(), metric.get("score").getAsDouble(), metric.get("scoreUnit").getAsString()));
+            }
+        }
+        return scores;
+    }
+
+    private static Map<String, JsonElement> toMap(final JsonObject object) {
+        final Map<String, JsonElement> map = new LinkedHashMap<>();
+        for (final Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    private static class Score {
+        private final String mode;
+        private final double value;
+        private final String unit;
+
+        private Score(String mode, double value, String unit) {
+            this.mode = mode;
+            this.value = value;
+            this.unit = unit;
+        }
+
+        //throughput counts operations per time, the other modes time per operation
+        private boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+}
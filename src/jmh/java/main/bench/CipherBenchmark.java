@@ -0,0 +1,70 @@
+package main.bench;
+
+import main.Utils.AesCtrKeyStream;
+import main.Utils.ChaCha20KeyStream;
+import main.Utils.EncryptionUtils;
+import main.Utils.KeyStream;
+import main.Utils.XorKeyStream;
+import main.enums.CipherType;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//key streams of every cipher a store can be created with, on heap arrays and direct buffers
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+
+    @Param({"xor", "aes-ctr", "chacha20"})
+    private String cipher;
+
+    @Param({"65536", "1048576"})
+    private int bufferSize;
+
+    private byte[] data;
+    private ByteBuffer direct;
+    private KeyStream keyStream;
+    private long position;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        data = new byte[bufferSize];
+        random.nextBytes(data);
+        direct = ByteBuffer.allocateDirect(bufferSize);
+        direct.put(data).clear();
+        final byte[] key = new byte[32];
+        random.nextBytes(key);
+        switch (CipherType.fromId(cipher)) {
+            case AES_CTR:
+                keyStream = new AesCtrKeyStream(key).forBlob("bench");
+                break;
+            case CHACHA20:
+                keyStream = new ChaCha20KeyStream(key).forBlob("bench");
+                break;
+            default:
+                keyStream = new XorKeyStream(key);
+        }
+    }
+
+    //moving key position, as when a file is processed chunk by chunk
+    @Benchmark
+    public byte[] heap() {
+        EncryptionUtils.encrypt(data, 0, data.length, keyStream, position);
+        position += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public ByteBuffer directBuffer() {
+        EncryptionUtils.encrypt(direct, 0, bufferSize, keyStream, position);
+        position += bufferSize;
+        return direct;
+    }
+}
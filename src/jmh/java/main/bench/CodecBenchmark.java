@@ -0,0 +1,80 @@
+package main.bench;
+
+import main.codec.CodecOptions;
+import main.codec.FileDecryptor;
+import main.codec.FileEncryptor;
+import main.enums.CipherType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+//add and decrypt of a generated tree, end to end
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodecBenchmark {
+    private static final byte[] KEY = "benchmark".getBytes(StandardCharsets.UTF_8);
+    private static final int DIRS = 20;
+
+    @Param({"4096", "1048576"})
+    private int fileSize;
+
+    @Param({"100"})
+    private int filesPerDir;
+
+    @Param({"4"})
+    private int threads;
+
+    //of both stores, xor being the one of stores created before ciphers could be chosen
+    @Param({"aes-ctr", "xor"})
+    private String cipher;
+
+    private Path work;
+    private Path source;
+    //encrypted once, read by every decrypt invocation
+    private Path encrypted;
+    private Path store;
+    private Path decrypted;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        work = Files.createTempDirectory("codec-bench");
+        source = Trees.generate(work.resolve("source"), DIRS, filesPerDir, fileSize, 42);
+        encrypted = Trees.initStore(work.resolve("encrypted"), CipherType.fromId(cipher));
+        final FileEncryptor encryptor = new FileEncryptor(KEY, source, encrypted, threads, new CodecOptions());
+        encryptor.addAll();
+        encryptor.commit();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws IOException {
+        Trees.delete(work.resolve("store"));
+        Trees.delete(work.resolve("decrypted"));
+        store = Trees.initStore(work.resolve("store"), CipherType.fromId(cipher));
+        decrypted = work.resolve("decrypted");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Trees.delete(work);
+    }
+
+    @Benchmark
+    public void encrypt() {
+        final FileEncryptor encryptor = new FileEncryptor(KEY, source, store, threads, new CodecOptions());
+        encryptor.addAll();
+        encryptor.commit();
+    }
+
+    @Benchmark
+    public void decrypt() {
+        new FileDecryptor(KEY, encrypted, decrypted, threads, new CodecOptions()).decrypt();
+    }
+}
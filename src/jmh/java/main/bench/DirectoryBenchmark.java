@@ -0,0 +1,48 @@
+package main.bench;
+
+import main.fs.beans.Directory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+//concurrent creation of directories, as done by the encryption workers
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class DirectoryBenchmark {
+    private static final int SHARED_NAMES = 16;
+
+    private Directory root;
+    private String[] shared;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        root = new Directory("root", Paths.get("root"));
+        shared = new String[SHARED_NAMES];
+        for (int i = 0; i < SHARED_NAMES; i++) {
+            shared[i] = "shared" + i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        private int next;
+    }
+
+    //every thread hits the same few directories, mostly already there
+    @Benchmark
+    public Directory sameNames(final Worker worker) {
+        return root.createDirIfAbsent(shared[worker.next++ & (SHARED_NAMES - 1)]);
+    }
+
+    //every call creates a new directory
+    @Benchmark
+    public Directory newNames(final Worker worker) {
+        return root.createDirIfAbsent(Thread.currentThread().getId() + "_" + worker.next++);
+    }
+}
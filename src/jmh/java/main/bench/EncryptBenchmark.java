@@ -0,0 +1,57 @@
+package main.bench;
+
+import main.Utils.EncryptionUtils;
+import main.Utils.XorKeyStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//the xor kernel on heap arrays and direct buffers, across buffer and key sizes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptBenchmark {
+
+    @Param({"4096", "65536", "1048576"})
+    private int bufferSize;
+
+    @Param({"16", "256", "4096"})
+    private int keyLength;
+
+    private byte[] data;
+    private ByteBuffer direct;
+    private XorKeyStream keyStream;
+    private long position;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        data = new byte[bufferSize];
+        random.nextBytes(data);
+        direct = ByteBuffer.allocateDirect(bufferSize);
+        direct.put(data).clear();
+        final byte[] key = new byte[keyLength];
+        random.nextBytes(key);
+        keyStream = new XorKeyStream(key);
+    }
+
+    //moving key position, as when a file is processed chunk by chunk
+    @Benchmark
+    public byte[] heap() {
+        EncryptionUtils.encrypt(data, 0, data.length, keyStream, position);
+        position += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public ByteBuffer directBuffer() {
+        EncryptionUtils.encrypt(direct, 0, bufferSize, keyStream, position);
+        position += bufferSize;
+        return direct;
+    }
+}
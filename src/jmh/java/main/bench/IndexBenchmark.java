@@ -0,0 +1,62 @@
+package main.bench;
+
+import main.fs.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+//writing and reading the whole filesystem index
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+    private static final byte[] KEY = "benchmark".getBytes(StandardCharsets.UTF_8);
+    private static final int FILES_PER_DIR = 100;
+
+    @Param({"10000", "1000000"})
+    private int entries;
+
+    private Path store;
+    private FileSystem fileSystem;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        store = Trees.initStore(Files.createTempDirectory("index-bench").resolve("store"));
+        fileSystem = new FileSystem(store, KEY);
+        for (int i = 0; i < entries; i++) {
+            final Path original = Paths.get("root", "dir" + i / FILES_PER_DIR, "file" + i);
+            fileSystem.addOrUpdateFile(original, Paths.get(String.format("%04x", i & 0xffff), "blob" + i + ".mydat"), 1024L, 0L, null);
+        }
+        fileSystem.commit(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Trees.delete(store.getParent());
+    }
+
+    //whole index written again, as at the end of every add
+    @Benchmark
+    public FileSystem flush() {
+        fileSystem.commit(true);
+        return fileSystem;
+    }
+
+    @Benchmark
+    public FileSystem load() {
+        return new FileSystem(store, KEY);
+    }
+
+    @Benchmark
+    public FileSystem loadLazy() {
+        return new FileSystem(store, KEY, 10_000);
+    }
+}
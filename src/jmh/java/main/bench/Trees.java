@@ -0,0 +1,62 @@
+package main.bench;
+
+import main.enums.CipherType;
+import main.fs.StoreConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+//temporary directory trees for the benchmarks
+final class Trees {
+
+    private Trees() {
+    }
+
+    //dirs directories of filesPerDir files, each of fileSize random bytes
+    static Path generate(final Path root, final int dirs, final int filesPerDir, final int fileSize, final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final byte[] data = new byte[fileSize];
+        for (int d = 0; d < dirs; d++) {
+            final Path dir = Files.createDirectories(root.resolve("dir" + d));
+            for (int f = 0; f < filesPerDir; f++) {
+                random.nextBytes(data);
+                Files.write(dir.resolve("file" + f + ".bin"), data);
+            }
+        }
+        return root;
+    }
+
+    //empty store of the default cipher, same as Init init
+    static Path initStore(final Path store) throws IOException {
+        return initStore(store, StoreConfig.DEFAULT_CIPHER);
+    }
+
+    static Path initStore(final Path store, final CipherType cipher) throws IOException {
+        Files.createDirectories(store);
+        Files.createFile(store.resolve(".fs"));
+        StoreConfig.create(store, cipher);
+        return store;
+    }
+
+    static void delete(final Path root) {
+        if (Files.notExists(root)) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package main.Utils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//aes in counter mode, which the jdk runs on the aes instructions of the cpu where there are any
+public class AesCtrKeyStream extends CounterKeyStream {
+    private static final int BLOCK = 16;
+
+    public AesCtrKeyStream(final byte[] key) {
+        this(new SecretKeySpec(key, "AES"), new byte[BLOCK], new ConcurrentLinkedQueue<>());
+    }
+
+    private AesCtrKeyStream(SecretKey key, byte[] nonce, Queue<Engine> ciphers) {
+        super(key, nonce, ciphers, BLOCK);
+    }
+
+    @Override
+    String algorithm() {
+        return "AES/CTR/NoPadding";
+    }
+
+    //the whole 16 bytes are the counter, the block index is added to the nonce with carry
+    @Override
+    AlgorithmParameterSpec parameters(final byte[] nonce, final long block) {
+        final byte[] iv = nonce.clone();
+        long add = block;
+        int carry = 0;
+        for (int i = BLOCK - 1; i >= 0 && (add != 0 || carry != 0); i--) {
+            final int sum = (iv[i] & 0xff) + (int) (add & 0xff) + carry;
+            iv[i] = (byte) sum;
+            carry = sum >>> 8;
+            add >>>= 8;
+        }
+        return new IvParameterSpec(iv);
+    }
+
+    @Override
+    int nonceSize() {
+        return BLOCK;
+    }
+
+    @Override
+    KeyStream withNonce(final byte[] nonce) {
+        return new AesCtrKeyStream(key, nonce, ciphers);
+    }
+}
@@ -0,0 +1,52 @@
+package main.Utils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.ChaCha20ParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//chacha20, fast in software on cpus without aes instructions
+public class ChaCha20KeyStream extends CounterKeyStream {
+    private static final int BLOCK = 64;
+    private static final int NONCE = 12;
+    //the block counter is 32 bits wide
+    private static final long MAX_BLOCKS = 1L << 32;
+
+    public ChaCha20KeyStream(final byte[] key) {
+        this(new SecretKeySpec(key, "ChaCha20"), new byte[NONCE], new ConcurrentLinkedQueue<>());
+    }
+
+    private ChaCha20KeyStream(SecretKey key, byte[] nonce, Queue<Engine> ciphers) {
+        super(key, nonce, ciphers, BLOCK);
+    }
+
+    @Override
+    String algorithm() {
+        return "ChaCha20";
+    }
+
+    @Override
+    AlgorithmParameterSpec parameters(final byte[] nonce, final long block) {
+        if (block >= MAX_BLOCKS) {
+            throw new IllegalArgumentException("ChaCha20 key stream ends at 256 GiB");
+        }
+        return new ChaCha20ParameterSpec(nonce, (int) block);
+    }
+
+    @Override
+    boolean refusesRepeatedNonce() {
+        return true;
+    }
+
+    @Override
+    int nonceSize() {
+        return NONCE;
+    }
+
+    @Override
+    KeyStream withNonce(final byte[] nonce) {
+        return new ChaCha20KeyStream(key, nonce, ciphers);
+    }
+}
@@ -0,0 +1,143 @@
+package main.Utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Queue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//key stream of a cipher in counter mode. the counter of any block can be computed, so any position is reached without going through the ones before it.
+//every blob gets its own nonce, so no two files share key stream bytes
+abstract class CounterKeyStream implements KeyStream {
+    private static final int HEADER_SIZE = 16;
+    //bytes transformed per call to the cipher
+    private static final int SLICE = 16 << 10;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    final SecretKey key;
+    private final byte[] nonce;
+    //initialized again for every call, shared by every key stream derived from the same key since looking them up is slow
+    final Queue<Engine> ciphers;
+    private final int blockSize;
+
+    CounterKeyStream(SecretKey key, byte[] nonce, Queue<Engine> ciphers, int blockSize) {
+        this.key = key;
+        this.nonce = nonce;
+        this.ciphers = ciphers;
+        this.blockSize = blockSize;
+    }
+
+    abstract String algorithm();
+
+    //nonce and counter of the block at index block
+    abstract AlgorithmParameterSpec parameters(byte[] nonce, long block);
+
+    abstract int nonceSize();
+
+    //same key and cipher instances, other nonce
+    abstract KeyStream withNonce(byte[] nonce);
+
+    //true when the cipher rejects being initialized twice in a row with the same key and nonce, whatever the counter
+    boolean refusesRepeatedNonce() {
+        return false;
+    }
+
+    @Override
+    public void apply(final ByteBuffer buffer, final int offset, final int length, final long keyPosition) {
+        if (length == 0) {
+            return;
+        }
+        final Engine engine = acquire();
+        final Cipher cipher = engine.cipher;
+        try {
+            //chunks of a file are transformed from the same nonce again and again, at other counters
+            if (refusesRepeatedNonce() && Arrays.equals(engine.nonce, nonce)) {
+                final byte[] other = nonce.clone();
+                other[0] ^= 1;
+                cipher.init(Cipher.DECRYPT_MODE, key, parameters(other, 0));
+            }
+            //decrypt mode, the same transformation in counter mode, as some ciphers refuse to encrypt twice with a key and nonce
+            cipher.init(Cipher.DECRYPT_MODE, key, parameters(nonce, keyPosition / blockSize));
+            engine.nonce = nonce;
+            final int skip = (int) (keyPosition % blockSize);
+            if (skip > 0) {
+                cipher.update(new byte[skip]);
+            }
+            //slice by slice through arrays of the engine: the jdk intrinsics only kick in once update is compiled, which takes many calls,
+            //and run faster from one array into another than in place
+            final byte[] in = engine.in;
+            final byte[] out = engine.out;
+            final boolean array = buffer.hasArray() && !buffer.isReadOnly();
+            final int end = offset + length;
+            for (int pos = offset; pos < end; pos += SLICE) {
+                final int n = Math.min(SLICE, end - pos);
+                if (array) {
+                    final int at = buffer.arrayOffset() + pos;
+                    cipher.update(buffer.array(), at, n, out, 0);
+                    System.arraycopy(out, 0, buffer.array(), at, n);
+                } else {
+                    buffer.get(pos, in, 0, n);
+                    cipher.update(in, 0, n, out, 0);
+                    buffer.put(pos, out, 0, n);
+                }
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Error applying " + algorithm() + " key stream", ex);
+        } finally {
+            ciphers.add(engine);
+        }
+    }
+
+    @Override
+    public KeyStream forBlob(final String name) {
+        return withNonce(Arrays.copyOf(EncryptionUtils.newDigest().digest(name.getBytes(UTF_8)), nonceSize()));
+    }
+
+    @Override
+    public int headerSize() {
+        return HEADER_SIZE;
+    }
+
+    @Override
+    public byte[] newHeader() {
+        final byte[] header = new byte[HEADER_SIZE];
+        RANDOM.nextBytes(header);
+        return header;
+    }
+
+    @Override
+    public KeyStream forHeader(final byte[] header) {
+        return withNonce(Arrays.copyOf(header, nonceSize()));
+    }
+
+    private Engine acquire() {
+        final Engine engine = ciphers.poll();
+        if (engine != null) {
+            return engine;
+        }
+        try {
+            return new Engine(Cipher.getInstance(algorithm()));
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+            throw new IllegalStateException(algorithm() + " is not available", ex);
+        }
+    }
+
+    //a cipher with the nonce it was last initialized with and its scratch arrays
+    static final class Engine {
+        private final Cipher cipher;
+        private final byte[] in = new byte[SLICE];
+        private final byte[] out = new byte[SLICE];
+        private byte[] nonce;
+
+        private Engine(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package main.Utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static main.Utils.EncryptionUtils.decrypt;
+
+//decrypts everything read from it, byte n of the stream being xor-ed with the key stream byte at startPosition + n
+public class DecryptingInputStream extends FilterInputStream {
+    private final KeyStream keyStream;
+    private long position;
+
+    public DecryptingInputStream(InputStream in, KeyStream keyStream) {
+        this(in, keyStream, 0);
+    }
+
+    public DecryptingInputStream(InputStream in, KeyStream keyStream, long startPosition) {
+        super(in);
+        this.keyStream = keyStream;
+        this.position = startPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read > 0) {
+            decrypt(b, off, read, keyStream, position);
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = in.skip(n);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+}
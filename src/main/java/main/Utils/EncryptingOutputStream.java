@@ -0,0 +1,70 @@
+package main.Utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static main.Utils.EncryptionUtils.encrypt;
+
+//encrypts everything written to it, byte n of the stream being xor-ed with the key stream byte at startPosition + n
+public class EncryptingOutputStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final KeyStream keyStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private long position;
+
+    public EncryptingOutputStream(OutputStream out, KeyStream keyStream) {
+        this(out, keyStream, 0);
+    }
+
+    public EncryptingOutputStream(OutputStream out, KeyStream keyStream, long startPosition) {
+        super(out);
+        this.keyStream = keyStream;
+        this.position = startPosition;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                drain();
+            }
+            final int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    //number of bytes written so far, including startPosition
+    public long getPosition() {
+        return position + count;
+    }
+
+    private void drain() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        encrypt(buffer, 0, count, keyStream, position);
+        out.write(buffer, 0, count);
+        position += count;
+        count = 0;
+    }
+}
@@ -2,19 +2,37 @@ package main.Utils;
 
 import main.enums.FileType;
 
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static main.enums.FileType.*;
 
 public class EncryptionUtils {
 
     private static final Set<String> VALID_EXTENSIONS = new HashSet<>();
+    //reads and writes byte[] contents 8 bytes at a time
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    //forces the byte-at-a-time kernel, to cross-check the word-wide one
+    private static final boolean SCALAR = Boolean.getBoolean("encryptor.xor.scalar");
+    //aes-256 and chacha20 both take 256 bit keys
+    private static final int DERIVED_KEY_BITS = 256;
 
     static {
         for (final FileType fileType : FileType.values()) {
@@ -29,12 +47,20 @@ public class EncryptionUtils {
     }
 
     public static void encrypt(final byte[] data, final byte[] key) {
-        int i = 0;
-        int len = key.length;
-        final int n = data.length;
-        for (int j = 0; j < n; j++) {
+        encrypt(data, 0, data.length, key, 0);
+    }
+
+    //scalar version, kept as reference for the word-wide kernel below
+    //data[offset] is xor-ed with the key byte at keyPosition, so a file can be processed chunk by chunk
+    public static void encrypt(final byte[] data, final int offset, final int length, final byte[] key, final long keyPosition) {
+        final int len = key.length;
+        int i = (int) (keyPosition % len);
+        final int end = offset + length;
+        for (int j = offset; j < end; j++) {
             data[j] = (byte) (data[j] ^ key[i]);
-            i = (i + 1) % len;
+            if (++i == len) {
+                i = 0;
+            }
         }
     }
 
@@ -42,6 +68,108 @@ public class EncryptionUtils {
         encrypt(data, key);
     }
 
+    public static void encrypt(final byte[] data, final int offset, final int length, final KeyStream keyStream, final long keyPosition) {
+        encrypt(ByteBuffer.wrap(data), offset, length, keyStream, keyPosition);
+    }
+
+    public static void decrypt(final byte[] data, final int offset, final int length, final KeyStream keyStream, final long keyPosition) {
+        encrypt(data, offset, length, keyStream, keyPosition);
+    }
+
+    //xors buffer[offset, offset + length) in place with the key stream, buffer[offset] getting the key stream byte at keyPosition.
+    //works on heap as well as direct buffers and does not touch position or limit of the buffer
+    public static void encrypt(final ByteBuffer buffer, final int offset, final int length, final KeyStream keyStream, final long keyPosition) {
+        keyStream.apply(buffer, offset, length, keyPosition);
+    }
+
+    public static void decrypt(final ByteBuffer buffer, final int offset, final int length, final KeyStream keyStream, final long keyPosition) {
+        encrypt(buffer, offset, length, keyStream, keyPosition);
+    }
+
+    //word-wide kernel of XorKeyStream
+    static void xor(final ByteBuffer buffer, final int offset, final int length, final XorKeyStream keyStream, final long keyPosition) {
+        final int keyLength = keyStream.getKeyLength();
+        int keyOffset = keyStream.offsetOf(keyPosition);
+        int pos = offset;
+        final int end = offset + length;
+        while (pos < end) {
+            final int n = Math.min(XorKeyStream.BLOCK, end - pos);
+            if (SCALAR) {
+                xorBytes(buffer, pos, n, keyStream.bytes(), keyOffset);
+            } else if (buffer.hasArray() && !buffer.isReadOnly()) {
+                xorWords(buffer.array(), buffer.arrayOffset() + pos, n, keyStream.bytes(), keyOffset);
+            } else {
+                xorWords(buffer, pos, n, keyStream.view(buffer.order()), keyOffset);
+            }
+            pos += n;
+            //a single modulo per block instead of per byte
+            keyOffset = (keyOffset + n) % keyLength;
+        }
+    }
+
+    private static void xorWords(final byte[] data, final int from, final int n, final byte[] key, final int keyOffset) {
+        int i = 0;
+        for (; i + Long.BYTES <= n; i += Long.BYTES) {
+            LONGS.set(data, from + i, (long) LONGS.get(data, from + i) ^ (long) LONGS.get(key, keyOffset + i));
+        }
+        for (; i < n; i++) {
+            data[from + i] = (byte) (data[from + i] ^ key[keyOffset + i]);
+        }
+    }
+
+    private static void xorWords(final ByteBuffer data, final int from, final int n, final ByteBuffer key, final int keyOffset) {
+        int i = 0;
+        for (; i + Long.BYTES <= n; i += Long.BYTES) {
+            data.putLong(from + i, data.getLong(from + i) ^ key.getLong(keyOffset + i));
+        }
+        for (; i < n; i++) {
+            data.put(from + i, (byte) (data.get(from + i) ^ key.get(keyOffset + i)));
+        }
+    }
+
+    private static void xorBytes(final ByteBuffer data, final int from, final int n, final byte[] key, final int keyOffset) {
+        for (int i = 0; i < n; i++) {
+            data.put(from + i, (byte) (data.get(from + i) ^ key[keyOffset + i]));
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    //password based key, slow to derive on purpose so passwords can not be tried quickly
+    public static byte[] deriveKey(final byte[] password, final byte[] salt, final int iterations) {
+        final char[] chars = new String(password, UTF_8).toCharArray();
+        try {
+            final SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            return factory.generateSecret(new PBEKeySpec(chars, salt, iterations, DERIVED_KEY_BITS)).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    public static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public static byte[] fromHex(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
     public static String getRandomName(final FileType fileType) {
         if (fileType == NON_REGULAR) {
             throw new IllegalArgumentException("Operating no permiited for non-regular files");
@@ -49,6 +177,25 @@ public class EncryptionUtils {
         return UUID.randomUUID().toString().replaceAll("-", "") + "." + fileType.getExtension();
     }
 
+    //name of a blob derived from its contents, used when identical files share one blob
+    public static String getContentName(final String hexDigest, final FileType fileType) {
+        if (fileType == NON_REGULAR) {
+            throw new IllegalArgumentException("Operating no permiited for non-regular files");
+        }
+        return hexDigest + "." + fileType.getExtension();
+    }
+
+    //attrs must have been read without following links
+    public static FileType getFileType(final Path filePath, final BasicFileAttributes attrs, final Path root) throws IOException {
+        if (attrs.isSymbolicLink()) {
+            Path linked = Files.readSymbolicLink(filePath).toAbsolutePath();
+            return linked.startsWith(root) ? INTERNAL_SYMLINK : EXTERNAL_SYMLINK;
+        } else if (attrs.isRegularFile()) {
+            return REGULAR;
+        }
+        return NON_REGULAR;
+    }
+
     public static FileType getFileType(final Path filePath, final Path root) throws IOException {
         if (Files.isSymbolicLink(filePath)) {
             Path linked = Files.readSymbolicLink(filePath).toAbsolutePath();
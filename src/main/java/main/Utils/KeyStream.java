@@ -0,0 +1,43 @@
+package main.Utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+//bytes xor-ed over the data of a file, which can be started at any position, so files can be processed chunk by chunk, in parallel or by range
+public interface KeyStream {
+
+    //xors buffer[offset, offset + length) in place, buffer[offset] getting the key stream byte at keyPosition.
+    //works on heap as well as direct buffers and does not touch position or limit of the buffer
+    void apply(ByteBuffer buffer, int offset, int length, long keyPosition);
+
+    //key stream of a blob, blobs are written once under a name of their own so the name is enough to tell them apart
+    KeyStream forBlob(String name);
+
+    //size of the cleartext header in front of files rewritten under the same name, like the index
+    int headerSize();
+
+    //random header for a file about to be written
+    byte[] newHeader();
+
+    //key stream of the bytes following header
+    KeyStream forHeader(byte[] header);
+
+    //writes a new header to out, returns the key stream of the bytes written after it
+    default KeyStream writeHeader(final OutputStream out) throws IOException {
+        final byte[] header = newHeader();
+        out.write(header);
+        return forHeader(header);
+    }
+
+    //reads the header written by writeHeader, returns the key stream of the bytes following it
+    default KeyStream readHeader(final InputStream in) throws IOException {
+        final byte[] header = in.readNBytes(headerSize());
+        if (header.length < headerSize()) {
+            throw new EOFException("File ends within its key stream header");
+        }
+        return forHeader(header);
+    }
+}
@@ -0,0 +1,72 @@
+package main.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//repeating-key xor with the raw password. key repeated far enough that a whole block can be read from any key offset without wrapping around.
+//the same key stream for every file, kept for stores created before ciphers could be picked
+public class XorKeyStream implements KeyStream {
+    //bytes xor-ed before the key offset is wrapped back
+    static final int BLOCK = 4096;
+
+    private final int keyLength;
+    private final byte[] expanded;
+    //views in both byte orders, so words read from the key line up with words read from any buffer
+    private final ByteBuffer bigEndian;
+    private final ByteBuffer littleEndian;
+
+    public XorKeyStream(final byte[] key) {
+        if (key.length == 0) {
+            throw new IllegalArgumentException("Key can not be empty");
+        }
+        this.keyLength = key.length;
+        this.expanded = new byte[keyLength + BLOCK];
+        for (int i = 0; i < expanded.length; i++) {
+            expanded[i] = key[i % keyLength];
+        }
+        this.bigEndian = ByteBuffer.wrap(expanded).asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+        this.littleEndian = ByteBuffer.wrap(expanded).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void apply(final ByteBuffer buffer, final int offset, final int length, final long keyPosition) {
+        EncryptionUtils.xor(buffer, offset, length, this, keyPosition);
+    }
+
+    @Override
+    public KeyStream forBlob(final String name) {
+        return this;
+    }
+
+    @Override
+    public int headerSize() {
+        return 0;
+    }
+
+    @Override
+    public byte[] newHeader() {
+        return new byte[0];
+    }
+
+    @Override
+    public KeyStream forHeader(final byte[] header) {
+        return this;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    //index of the key byte used at keyPosition
+    int offsetOf(final long keyPosition) {
+        return (int) (keyPosition % keyLength);
+    }
+
+    byte[] bytes() {
+        return expanded;
+    }
+
+    ByteBuffer view(final ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? bigEndian : littleEndian;
+    }
+}
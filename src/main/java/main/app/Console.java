@@ -2,17 +2,27 @@ package main.app;
 
 import main.fs.FileSystem;
 import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Scanner;
 
 public class Console {
 
+    //files of a subtree copied at once by cp -r
+    private static final int COPY_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_HEAD_LINES = 10;
+
     private final FileSystem fileSystem;
+    private final FileCommands fileCommands;
 
     public Console(FileSystem fileSystem) {
         this.fileSystem = fileSystem;
+        this.fileCommands = new FileCommands(fileSystem);
     }
 
     public void start() {
@@ -21,12 +31,16 @@ public class Console {
         Directory prev = current;
         final Path rootPath = fileSystem.getRoot().getPath();
         boolean exit = false;
+        Path path;
         while (!exit) {
             final String command = scanner.next();
             switch (command) {
                 case "reload":
                     fileSystem.reload();
+                    current = refresh(current);
+                    prev = refresh(prev);
                     System.out.println("Filesystem reloaded");
+                    break;
                 case "exit":
                     System.out.println("Bye!");
                     exit = true;
@@ -37,10 +51,40 @@ public class Console {
                 case "ls":
                     current.print();
                     break;
+                case "find":
+                    //glob over names, or over paths from the root when it holds a slash, e.g. *.txt or src/**/*.txt
+                    final List<String> found = fileSystem.find(scanner.nextLine().trim());
+                    found.forEach(System.out::println);
+                    System.out.println("Found : " + found.size());
+                    break;
+                case "stat":
+                    path = rootPath.relativize(current.getPath().resolve(Paths.get(scanner.next())));
+                    final FileInfo file = fileSystem.getFile(path);
+                    if (file == null) {
+                        System.out.println("No file exists at path : " + path);
+                    } else {
+                        stat(file);
+                    }
+                    break;
+                case "cat":
+                case "head":
+                case "tail":
+                case "cp":
+                    //the rest of the line holds the arguments, errors are reported without leaving the console
+                    try {
+                        read(command, scanner.nextLine().trim().split("\\s+"), current.getPath(), rootPath);
+                    } catch (NoSuchFileException ex) {
+                        System.out.println("No file exists at path : " + ex.getMessage());
+                    } catch (IOException | RuntimeException ex) {
+                        System.out.println("Error : " + ex.getMessage());
+                    }
+                    break;
                 case "mkdir":
-                    Path path = rootPath.relativize(current.getPath().resolve(Paths.get(scanner.next())));
+                    path = rootPath.relativize(current.getPath().resolve(Paths.get(scanner.next())));
                     final Directory newDir = fileSystem.createDirIfAbsent(path);
                     fileSystem.commit();
+                    current = refresh(current);
+                    prev = refresh(prev);
                     System.out.println("Created directory " + rootPath.relativize(newDir.getPath()));
                     break;
                 case "rm":
@@ -52,6 +96,8 @@ public class Console {
                             System.out.println("No directory exists at path : " + path);
                         } else {
                             fileSystem.commit();
+                            current = refresh(current);
+                            prev = refresh(prev);
                             System.out.println("Removed directory at path : " + path);
                         }
                     } else {
@@ -61,13 +107,19 @@ public class Console {
                             System.out.println("No file exists at path : " + path);
                         } else {
                             fileSystem.commit();
+                            current = refresh(current);
+                            prev = refresh(prev);
                             System.out.println("Removed file at path : " + path);
                         }
                     }
                     break;
                 case "clean":
-                    System.out.println("Removed : " + fileSystem.clean() + " orphan files");
+                    //clean -f scans the whole store instead of only blobs dropped since the last clean
+                    final boolean full = "-f".equals(scanner.nextLine().trim());
+                    System.out.println("Removed : " + (full ? fileSystem.cleanAll() : fileSystem.clean()) + " orphan files");
                     fileSystem.commit();
+                    current = refresh(current);
+                    prev = refresh(prev);
                     break;
                 default:
                     if (command.startsWith("cd")) {
@@ -107,4 +159,71 @@ public class Console {
             System.out.println("\n----------------------------------------\n");
         }
     }
+
+    //cat <file> [<offset> [<length>]], head|tail [-c <bytes> | -n <lines>] <file>, cp [-r] <path> <local path>
+    private void read(final String command, final String[] args, final Path currentPath, final Path rootPath) throws IOException {
+        final Path last = rootPath.relativize(currentPath.resolve(args[args.length - 1]));
+        switch (command) {
+            case "cat":
+                final Path file = rootPath.relativize(currentPath.resolve(args[0]));
+                final long offset = args.length > 1 ? Options.parseSize(args[1]) : 0;
+                final long length = args.length > 2 ? Options.parseSize(args[2]) : -1;
+                fileCommands.cat(file, offset, length);
+                break;
+            case "head":
+            case "tail":
+                final boolean bytes = "-c".equals(args[0]);
+                final long count = args.length > 2 ? Options.parseSize(args[1]) : DEFAULT_HEAD_LINES;
+                if ("head".equals(command)) {
+                    if (bytes) {
+                        fileCommands.headBytes(last, count);
+                    } else {
+                        fileCommands.headLines(last, count);
+                    }
+                } else {
+                    if (bytes) {
+                        fileCommands.tailBytes(last, count);
+                    } else {
+                        fileCommands.tailLines(last, count);
+                    }
+                }
+                break;
+            default:
+                final boolean recursive = "-r".equals(args[0]);
+                final Path source = rootPath.relativize(currentPath.resolve(args[recursive ? 1 : 0]));
+                final Path local = Paths.get(args[args.length - 1]).toAbsolutePath();
+                if (recursive) {
+                    System.out.println("Copied : " + fileCommands.copyTree(source, local, COPY_THREADS) + " files to " + local);
+                } else {
+                    System.out.println("Copied : " + fileCommands.copy(source, local) + " bytes to " + local);
+                }
+        }
+    }
+
+    private static void stat(final FileInfo file) {
+        System.out.println("Name : " + file.getName());
+        if (file.isRegularFile()) {
+            System.out.println("Size : " + (file.getSize() == null ? "unknown" : file.getSize()));
+        } else {
+            System.out.println((file.isInternalSymlinkFile() ? "Internal" : "External") + " symlink to : " + file.getSymlinkTarget());
+        }
+        if (file.isPacked()) {
+            System.out.println("Pack : " + file.getEncryptedFilePath() + " at " + file.getPackOffset() + ", " + file.getPackLength() + " bytes");
+        } else {
+            System.out.println("Blob : " + file.getEncryptedFilePath());
+        }
+        if (file.getHash() != null) {
+            System.out.println("Hash : " + file.getHash());
+        }
+        if (file.getTransforms() != null) {
+            System.out.println("Transforms : " + String.join(",", file.getTransforms()));
+        }
+    }
+
+    //directories held across a commit or reload may have been read again from the index, look them up by path
+    private Directory refresh(final Directory dir) {
+        final Path rootPath = fileSystem.getRoot().getPath();
+        final Directory found = fileSystem.findDir(rootPath.relativize(dir.getPath()));
+        return found == null ? fileSystem.getRoot() : found;
+    }
 }
@@ -0,0 +1,224 @@
+package main.app;
+
+import main.codec.MyExecutorServiceBuilder;
+import main.fs.FileSystem;
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.*;
+
+//console commands reading single stored files, only the bytes printed or copied are decrypted
+class FileCommands {
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final FileSystem fileSystem;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //stdout as a channel, never closed
+    private final WritableByteChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+
+    FileCommands(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    //length bytes from offset, or up to the end of the file when length is negative
+    void cat(final Path path, final long offset, final long length) throws IOException {
+        try (final SeekableByteChannel channel = fileSystem.openChannel(path)) {
+            channel.position(offset);
+            print(channel, length < 0 ? Long.MAX_VALUE : length);
+        }
+    }
+
+    void headBytes(final Path path, final long count) throws IOException {
+        cat(path, 0, count);
+    }
+
+    void headLines(final Path path, final long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        System.out.flush();
+        try (final SeekableByteChannel channel = fileSystem.openChannel(path)) {
+            long lines = 0;
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n' && ++lines == count) {
+                        buffer.limit(i + 1);
+                        break;
+                    }
+                }
+                writeFully(buffer);
+                if (lines == count) {
+                    break;
+                }
+                buffer.clear();
+            }
+        }
+        System.out.println();
+    }
+
+    void tailBytes(final Path path, final long count) throws IOException {
+        try (final SeekableByteChannel channel = fileSystem.openChannel(path)) {
+            channel.position(Math.max(0, channel.size() - count));
+            print(channel, Long.MAX_VALUE);
+        }
+    }
+
+    //scans backwards from the end, so only the last lines of a big file are decrypted
+    void tailLines(final Path path, final long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        try (final SeekableByteChannel channel = fileSystem.openChannel(path)) {
+            final long size = channel.size();
+            final ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+            long start = 0;
+            long lines = 0;
+            long end = size;
+            scan:
+            while (end > 0) {
+                final long from = Math.max(0, end - BUFFER_SIZE);
+                chunk.clear().limit((int) (end - from));
+                channel.position(from);
+                while (chunk.hasRemaining() && channel.read(chunk) >= 0) {
+                    //until the whole chunk is read
+                }
+                for (int i = chunk.position() - 1; i >= 0; i--) {
+                    //newline ending the last line does not start another one
+                    if (chunk.get(i) == '\n' && from + i != size - 1 && ++lines == count) {
+                        start = from + i + 1;
+                        break scan;
+                    }
+                }
+                end = from;
+            }
+            channel.position(start);
+            print(channel, Long.MAX_VALUE);
+        }
+    }
+
+    //into local, or into a file of the same name when local is a directory. returns number of bytes copied
+    long copy(final Path path, Path local) throws IOException {
+        if (Files.isDirectory(local)) {
+            local = local.resolve(path.getFileName().toString());
+        }
+        return copy(fileSystem.resolveFile(path), local);
+    }
+
+    //directories and links are created upfront, files are copied by a pool of threads. returns number of files copied
+    int copyTree(final Path path, final Path local, final int threads) throws IOException {
+        final Directory dir = fileSystem.findDir(path);
+        if (dir == null) {
+            throw new IOException("No directory exists at path : " + path);
+        }
+        final Map<Path, FileInfo> files = new LinkedHashMap<>();
+        collect(dir, local, files);
+        final ExecutorService executorService = new MyExecutorServiceBuilder(threads, "copy").build();
+        try {
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (final Map.Entry<Path, FileInfo> entry : files.entrySet()) {
+                futures.add(executorService.submit(() -> copy(entry.getValue(), entry.getKey())));
+            }
+            for (final Future<Long> future : futures) {
+                future.get();
+            }
+            return files.size();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted copying : " + path, ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Error copying : " + path, ex.getCause());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /*
+        internal symlinks are copied as the files they point at, external ones are recreated as links.
+        internal ones pointing at a directory, at nothing or round in a loop are skipped rather than failing the whole copy
+     */
+    private void collect(final Directory dir, final Path local, final Map<Path, FileInfo> files) throws IOException {
+        Files.createDirectories(local);
+        final Path rootPath = fileSystem.getRoot().getPath();
+        for (final FileInfo file : dir.getAllFiles()) {
+            final Path target = local.resolve(file.getName());
+            if (file.isRegularFile()) {
+                files.put(target, file);
+            } else if (file.isInternalSymlinkFile()) {
+                try {
+                    files.put(target, fileSystem.resolveFile(rootPath.relativize(dir.getPath()).resolve(file.getName())));
+                } catch (NoSuchFileException | FileSystemLoopException ex) {
+                    System.out.println("Skipping symlink : " + target + ", it does not point at a file : " + file.getSymlinkTarget());
+                }
+            } else {
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, Paths.get(file.getSymlinkTarget()));
+            }
+        }
+        for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+            collect(subdir, local.resolve(subdir.getName()), files);
+        }
+    }
+
+    //channel to channel, decrypted bytes still pass through a heap buffer of the file channel on their way to the target
+    private long copy(final FileInfo file, final Path local) throws IOException {
+        try (final SeekableByteChannel in = fileSystem.openChannel(file);
+             final FileChannel out = FileChannel.open(local, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = out.transferFrom(in, position, size - position);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            return position;
+        }
+    }
+
+    //at most limit bytes from the current position of channel to stdout
+    private void print(final SeekableByteChannel channel, long limit) throws IOException {
+        //whatever the console printed before goes out first
+        System.out.flush();
+        while (limit > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit));
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            writeFully(buffer);
+            limit -= read;
+        }
+        System.out.println();
+    }
+
+    private void writeFully(final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            stdout.write(data);
+        }
+    }
+}
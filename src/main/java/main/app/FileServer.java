@@ -0,0 +1,264 @@
+package main.app;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import main.codec.MyExecutorServiceBuilder;
+import main.fs.FileSystem;
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//serves the store over http on the loopback interface, directories as html listings and files decrypted as they are sent.
+//a single byte range per request is honoured, so players and download managers can seek without the whole file being decrypted
+class FileServer {
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final long[] UNSATISFIABLE = {};
+
+    private final FileSystem fileSystem;
+    private final int port;
+    private final int threads;
+    private final int queueSize;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    FileServer(FileSystem fileSystem, int port, int threads, int queueSize) {
+        this.fileSystem = fileSystem;
+        this.port = port;
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    //returns once listening, requests are answered by the pool until stop
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), queueSize);
+        executor = new MyExecutorServiceBuilder(threads, "http").setQueueSize(queueSize).build();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        System.out.println("Serving " + fileSystem.getRoot().getPath() + " at http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                           + ":" + server.getAddress().getPort() + "/");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(final HttpExchange exchange) {
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendText(exchange, 405, "Method not allowed : " + method);
+                return;
+            }
+            final String uri = exchange.getRequestURI().getPath();
+            //relative to the root of the store, as in the console
+            final Path path = Paths.get(uri.substring(1)).normalize();
+            if (path.startsWith("..")) {
+                sendText(exchange, 404, "Not found : " + uri);
+                return;
+            }
+            final Directory dir = fileSystem.findDir(path);
+            if (dir != null) {
+                if (!uri.endsWith("/")) {
+                    //relative links of the listing resolve against the trailing slash
+                    exchange.getResponseHeaders().set("Location", encode(uri) + "/");
+                    sendText(exchange, 301, "Moved to : " + uri + "/");
+                    return;
+                }
+                sendListing(exchange, uri, dir);
+                return;
+            }
+            final FileInfo file;
+            try {
+                file = fileSystem.resolveFile(path);
+            } catch (NoSuchFileException ex) {
+                sendText(exchange, 404, "Not found : " + uri);
+                return;
+            }
+            sendFile(exchange, file);
+        } catch (IOException | RuntimeException ex) {
+            //headers are gone once a body was started, the client then sees a short response
+            if (exchange.getResponseCode() == -1) {
+                try {
+                    sendText(exchange, 500, "Error : " + ex.getMessage());
+                } catch (IOException ignored) {
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendFile(final HttpExchange exchange, final FileInfo file) throws IOException {
+        try (final SeekableByteChannel channel = fileSystem.openChannel(file)) {
+            final long size = channel.size();
+            final Headers headers = exchange.getResponseHeaders();
+            headers.set("Accept-Ranges", "bytes");
+            final String type = URLConnection.guessContentTypeFromName(file.getName());
+            headers.set("Content-Type", type == null ? "application/octet-stream" : type);
+            if (file.getModifiedTime() != null) {
+                headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(file.getModifiedTime()).atOffset(ZoneOffset.UTC)));
+            }
+            final long[] range = range(exchange.getRequestHeaders().getFirst("Range"), size);
+            if (range == UNSATISFIABLE) {
+                headers.set("Content-Range", "bytes */" + size);
+                send(exchange, 416, 0);
+                return;
+            }
+            final long first = range == null ? 0 : range[0];
+            final long length = range == null ? size : range[1] - range[0] + 1;
+            if (range != null) {
+                headers.set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            }
+            if (!send(exchange, range == null ? 200 : 206, length)) {
+                return;
+            }
+            //only the requested bytes are read, blobs are decrypted from the key stream position of first
+            channel.position(first);
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+            final OutputStream body = exchange.getResponseBody();
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                final int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("File ended " + remaining + " bytes early : " + file.getName());
+                }
+                body.write(buffer.array(), 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private void sendListing(final HttpExchange exchange, final String uri, final Directory dir) throws IOException {
+        final List<Directory> dirs = new ArrayList<>(dir.getAllSubDirs());
+        dirs.sort(Comparator.comparing(Directory::getName));
+        final List<FileInfo> files = new ArrayList<>(dir.getAllFiles());
+        files.sort(Comparator.comparing(FileInfo::getName));
+        final StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>")
+                .append(escape(uri)).append("</title></head><body>\n<h1>").append(escape(uri)).append("</h1>\n<ul>\n");
+        if (!"/".equals(uri)) {
+            html.append("<li><a href=\"../\">../</a></li>\n");
+        }
+        for (final Directory subdir : dirs) {
+            html.append("<li><a href=\"").append(escape(encodeName(subdir.getName()))).append("/\">").append(escape(subdir.getName())).append("/</a></li>\n");
+        }
+        for (final FileInfo file : files) {
+            html.append("<li><a href=\"").append(escape(encodeName(file.getName()))).append("\">").append(escape(file.getName())).append("</a>");
+            if (file.getSize() != null) {
+                html.append(" ").append(file.getSize());
+            }
+            html.append("</li>\n");
+        }
+        html.append("</ul>\n</body></html>\n");
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        sendBody(exchange, 200, html.toString().getBytes(UTF_8));
+    }
+
+    private static void sendText(final HttpExchange exchange, final int code, final String text) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        sendBody(exchange, code, (text + "\n").getBytes(UTF_8));
+    }
+
+    private static void sendBody(final HttpExchange exchange, final int code, final byte[] body) throws IOException {
+        if (send(exchange, code, body.length)) {
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /*
+        sends the status line and headers of a body of length bytes, returns whether the body is to be written.
+        the length is always declared so connections are kept alive; 0 would mean chunked to HttpServer and -1 no body at all
+     */
+    private static boolean send(final HttpExchange exchange, final int code, final long length) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(code, -1);
+            return false;
+        }
+        if (length == 0) {
+            exchange.getResponseHeaders().set("Content-Length", "0");
+            exchange.sendResponseHeaders(code, -1);
+            return false;
+        }
+        exchange.sendResponseHeaders(code, length);
+        return true;
+    }
+
+    /*
+        first and last byte of a "bytes=first-last", "bytes=first-" or "bytes=-suffix" range header.
+        null when the whole file is to be sent: no header, one that does not parse, or several ranges, which may be ignored.
+        UNSATISFIABLE when the range starts past the end of the file
+     */
+    private static long[] range(final String header, final long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            final String from = spec.substring(0, dash).trim();
+            final String to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                final long suffix = Long.parseLong(to);
+                if (suffix < 0) {
+                    return null;
+                }
+                return suffix == 0 || size == 0 ? UNSATISFIABLE : new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            final long first = Long.parseLong(from);
+            final long last = to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to);
+            if (first < 0 || last < first) {
+                return null;
+            }
+            return first >= size ? UNSATISFIABLE : new long[]{first, Math.min(last, size - 1)};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    //percent encodes what is not allowed in a url path, keeping slashes
+    private static String encode(final String path) {
+        try {
+            return new URI(null, null, path, null).getRawPath();
+        } catch (URISyntaxException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    //a name with a colon would otherwise read as a scheme
+    private static String encodeName(final String name) {
+        return encode("./" + name).substring(2);
+    }
+
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
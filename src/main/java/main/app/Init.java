@@ -1,55 +1,134 @@
 package main.app;
 
+import main.codec.CodecOptions;
 import main.codec.FileDecryptor;
 import main.codec.FileEncryptor;
+import main.codec.transform.TransformPipeline;
+import main.enums.CipherType;
+import main.enums.IoMode;
 import main.fs.FileSystem;
+import main.fs.StoreConfig;
+import main.metrics.MetricsSummary;
+import main.metrics.Reporter;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.function.Function;
+import java.util.Arrays;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class Init {
+    private static final int DEFAULT_LAZY_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_PORT = 8080;
+
     public static void main(String[] args) throws IOException {
-        final String operation = args[0];
+        final Options options = new Options(args);
+        final String operation = options.get(0);
         if ("init".equals(operation)) {
-            final Path targetDir = Paths.get(args[1]).toAbsolutePath();
+            final Path targetDir = Paths.get(options.get(1)).toAbsolutePath();
             final Path filesystem = targetDir.resolve(".fs");
             if (!Files.exists(targetDir) || !Files.exists(filesystem)) {
                 if (!Files.exists(targetDir)) {
                     Files.createDirectories(targetDir);
                 }
                 Files.createFile(filesystem);
-                System.out.println("Initialization complete");
+                //--cipher=aes-ctr|chacha20|xor, fixed for the lifetime of the store
+                final CipherType cipher = CipherType.fromId(options.get("cipher", StoreConfig.DEFAULT_CIPHER.getId()));
+                StoreConfig.create(targetDir, cipher);
+                System.out.println("Initialization complete, cipher : " + cipher.getId());
             } else {
                 System.out.println("Directory already exists");
             }
         } else if ("add".equals(operation)) {
-            final Path root = Paths.get(args[1]).toAbsolutePath();
-            final Path targetDir = Paths.get(args[2]).toAbsolutePath();
-            final String password = args[3];
-            final int threads = Integer.parseInt(args[4]);
-            final FileEncryptor fileEncryptor = new FileEncryptor(password.getBytes(UTF_8), root, targetDir, threads);
-            final long total = Files.walk(root).filter(p -> !p.toFile().isDirectory()).count();
+            final Path root = Paths.get(options.get(1)).toAbsolutePath();
+            final Path targetDir = Paths.get(options.get(2)).toAbsolutePath();
+            final String password = options.get(3);
+            final int threads = Integer.parseInt(options.get(4));
+            final CodecOptions codecOptions = codecOptions(options);
+            final Reporter reporter = reporter(options, codecOptions, "Encrypted").start();
+            final FileEncryptor fileEncryptor = new FileEncryptor(password.getBytes(UTF_8), root, targetDir, threads, codecOptions);
+            final long total = fileEncryptor.addAll();
             System.out.println("Total files to add : " + total);
-            Files.walkFileTree(root, fileEncryptor);
             fileEncryptor.commit();
+            reporter.stop();
+            writeMetrics(options, codecOptions, "add", threads);
         } else if ("decrypt".equals(operation)) {
-            final Path root = Paths.get(args[1]).toAbsolutePath();
-            final Path targetDir = Paths.get(args[2]).toAbsolutePath();
-            final String password = args[3];
-            final int threads = Integer.parseInt(args[4]);
-            final FileDecryptor fileDecryptor = new FileDecryptor(password.getBytes(UTF_8), root, targetDir, Function.identity(), threads);
-            fileDecryptor.decrypt();
+            final Path root = Paths.get(options.get(1)).toAbsolutePath();
+            final Path targetDir = Paths.get(options.get(2)).toAbsolutePath();
+            final String password = options.get(3);
+            final int threads = Integer.parseInt(options.get(4));
+            final CodecOptions codecOptions = codecOptions(options);
+            final Reporter reporter = reporter(options, codecOptions, "Decrypted").start();
+            //--path=<path> decrypts only that file or directory of the store, --glob=<glob> only what matches below it.
+            //either reads the index lazily, keeping at most --cache directories in memory
+            final FileDecryptor fileDecryptor = new FileDecryptor(password.getBytes(UTF_8), root, targetDir, threads, codecOptions,
+                                                                  options.getInt("cache", DEFAULT_LAZY_CACHE_SIZE));
+            fileDecryptor.decrypt(Paths.get(options.get("path", "")), options.get("glob", null));
+            reporter.stop();
+            writeMetrics(options, codecOptions, "decrypt", threads);
         } else if ("cmd".equals(operation)) {
-            final Path root = Paths.get(args[1]).toAbsolutePath();
-            final String password = args[2];
-            final FileSystem filesystem = new FileSystem(root, password.getBytes(UTF_8));
+            final Path root = Paths.get(options.get(1)).toAbsolutePath();
+            final String password = options.get(2);
+            //--lazy reads directories only when first reached, keeping at most --cache of them in memory
+            final int lazyCacheSize = options.has("lazy") ? options.getInt("cache", DEFAULT_LAZY_CACHE_SIZE) : 0;
+            final FileSystem filesystem = new FileSystem(root, password.getBytes(UTF_8), lazyCacheSize);
             final Console console = new Console(filesystem);
             console.start();
+        } else if ("serve".equals(operation)) {
+            final Path root = Paths.get(options.get(1)).toAbsolutePath();
+            final String password = options.get(2);
+            final int lazyCacheSize = options.has("lazy") ? options.getInt("cache", DEFAULT_LAZY_CACHE_SIZE) : 0;
+            final FileSystem filesystem = new FileSystem(root, password.getBytes(UTF_8), lazyCacheSize);
+            //--port=<port> on 127.0.0.1, --threads=<threads> answering requests, --queue=<requests> waiting for them
+            final int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors() * 2);
+            final FileServer server = new FileServer(filesystem, options.getInt("port", DEFAULT_PORT), threads,
+                                                     options.getInt("queue", threads * 16));
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        }
+    }
+
+    //--io=auto|heap|streaming|mmap, --mmap-threshold=<size> used by auto mode, --hash to keep content digests, --dedup to share blobs between identical files,
+    //--transforms=<id,id> stages applied before encryption, e.g. deflate or gzip, --queue=<files> in flight while adding,
+    //--pack-threshold=<size> below which files are appended to pack files, --readers, --transformers and --writers threads of --io=pipeline
+    //--virtual runs a virtual thread per file, at most --concurrency=<files> at once (defaults to the thread count)
+    //--segment-threshold=<size> from which a file is split between --segment-threads threads, 0 to never split
+    private static CodecOptions codecOptions(final Options options) {
+        return new CodecOptions()
+                .setIoMode(IoMode.fromName(options.get("io", IoMode.AUTO.name())))
+                .setMmapThreshold(options.getSize("mmap-threshold", CodecOptions.DEFAULT_MMAP_THRESHOLD))
+                .setHash(options.has("hash"))
+                .setDedup(options.has("dedup"))
+                .setTransforms(transforms(options.get("transforms", null)))
+                .setQueueSize(options.getInt("queue", 0))
+                .setPackThreshold(options.getSize("pack-threshold", 0))
+                .setReaders(options.getInt("readers", CodecOptions.DEFAULT_READERS))
+                .setTransformers(options.getInt("transformers", Runtime.getRuntime().availableProcessors()))
+                .setWriters(options.getInt("writers", CodecOptions.DEFAULT_WRITERS))
+                .setVirtualThreads(options.has("virtual"))
+                .setConcurrency(options.getInt("concurrency", 0))
+                .setSegmentThreshold(options.getSize("segment-threshold", CodecOptions.DEFAULT_SEGMENT_THRESHOLD))
+                .setSegmentThreads(options.getInt("segment-threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    //--report-interval=<seconds> between progress lines
+    private static Reporter reporter(final Options options, final CodecOptions codecOptions, final String name) {
+        final long intervalMillis = options.getInt("report-interval", (int) (Reporter.DEFAULT_INTERVAL_MILLIS / 1000)) * 1000L;
+        return new Reporter(codecOptions.getMetrics(), name, intervalMillis);
+    }
+
+    //--metrics=<file> receives a json summary of the run
+    private static void writeMetrics(final Options options, final CodecOptions codecOptions, final String operation, final int threads) {
+        final String path = options.get("metrics", null);
+        if (path != null) {
+            MetricsSummary.write(codecOptions.getMetrics(), operation, threads, Paths.get(path));
+            System.out.println("Metrics written to : " + path);
         }
     }
+
+    private static TransformPipeline transforms(final String ids) {
+        return ids == null ? TransformPipeline.EMPTY : TransformPipeline.of(Arrays.asList(ids.split(",")));
+    }
 }
@@ -0,0 +1,68 @@
+package main.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//splits command line into positional arguments and --name=value / --flag options
+public class Options {
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+
+    public Options(final String[] args) {
+        for (final String arg : args) {
+            if (arg.startsWith("--")) {
+                final int split = arg.indexOf('=');
+                if (split < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, split), arg.substring(split + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
+    public String get(final int index) {
+        if (index >= positional.size()) {
+            throw new IllegalArgumentException("Missing argument at position : " + index);
+        }
+        return positional.get(index);
+    }
+
+    public String get(final String name, final String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public boolean has(final String name) {
+        return Boolean.parseBoolean(options.getOrDefault(name, "false"));
+    }
+
+    public int getInt(final String name, final int defaultValue) {
+        final String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    //accepts plain bytes or a k/m/g suffix, e.g. 64m
+    public long getSize(final String name, final long defaultValue) {
+        final String value = options.get(name);
+        return value == null ? defaultValue : parseSize(value);
+    }
+
+    public static long parseSize(final String value) {
+        final String lower = value.trim().toLowerCase();
+        final char unit = lower.charAt(lower.length() - 1);
+        switch (unit) {
+            case 'k':
+                return Long.parseLong(lower.substring(0, lower.length() - 1)) << 10;
+            case 'm':
+                return Long.parseLong(lower.substring(0, lower.length() - 1)) << 20;
+            case 'g':
+                return Long.parseLong(lower.substring(0, lower.length() - 1)) << 30;
+            default:
+                return Long.parseLong(lower);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package main.codec;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//fixed set of direct buffers handed out and given back, acquire waits while all of them are in use
+class BufferPool {
+    private final BlockingQueue<ByteBuffer> free;
+
+    BufferPool(int count, int size) {
+        this.free = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.add(ByteBuffer.allocateDirect(size));
+        }
+    }
+
+    ByteBuffer acquire() throws InterruptedIOException {
+        try {
+            final ByteBuffer buffer = free.take();
+            buffer.clear();
+            return buffer;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a buffer");
+        }
+    }
+
+    void release(final ByteBuffer buffer) {
+        free.add(buffer);
+    }
+}
@@ -0,0 +1,180 @@
+package main.codec;
+
+import main.codec.transform.TransformPipeline;
+import main.enums.IoMode;
+import main.metrics.Metrics;
+
+//tuning shared by FileEncryptor and FileDecryptor
+public class CodecOptions {
+    public static final long DEFAULT_MMAP_THRESHOLD = 64L << 20;
+    public static final int QUEUE_SIZE_PER_THREAD = 16;
+    public static final int DEFAULT_READERS = 2;
+    public static final int DEFAULT_WRITERS = 2;
+    public static final long DEFAULT_SEGMENT_THRESHOLD = 256L << 20;
+
+    private IoMode ioMode = IoMode.AUTO;
+    private long mmapThreshold = DEFAULT_MMAP_THRESHOLD;
+    //store a digest of every added file, so touched but identical files are not encrypted again
+    private boolean hash;
+    //name blobs after their contents, so identical files are stored once
+    private boolean dedup;
+    //applied to contents of added files before encryption, e.g. compression
+    private TransformPipeline transforms = TransformPipeline.EMPTY;
+    //files submitted to the workers but not finished yet, 0 for QUEUE_SIZE_PER_THREAD per worker
+    private int queueSize;
+    //files smaller than this are appended to shared pack files instead of getting a blob each, 0 to never pack
+    private long packThreshold;
+    //files handled on virtual threads, one per file, instead of a fixed pool of worker threads
+    private boolean virtualThreads;
+    //files handled at once with virtual threads, 0 for the thread count
+    private int concurrency;
+    //threads of every stage of the pipeline io mode
+    private int readers = DEFAULT_READERS;
+    private int transformers = Runtime.getRuntime().availableProcessors();
+    private int writers = DEFAULT_WRITERS;
+    //files from this size on are split into segments transformed by several threads at once, 0 to never split
+    private long segmentThreshold = DEFAULT_SEGMENT_THRESHOLD;
+    private int segmentThreads = Runtime.getRuntime().availableProcessors();
+    //filled in by the run using these options
+    private Metrics metrics = new Metrics();
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public CodecOptions setIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    public CodecOptions setMmapThreshold(long mmapThreshold) {
+        this.mmapThreshold = mmapThreshold;
+        return this;
+    }
+
+    public boolean isHash() {
+        return hash;
+    }
+
+    public CodecOptions setHash(boolean hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public CodecOptions setDedup(boolean dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public CodecOptions setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public long getPackThreshold() {
+        return packThreshold;
+    }
+
+    public CodecOptions setPackThreshold(long packThreshold) {
+        this.packThreshold = packThreshold;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public CodecOptions setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public CodecOptions setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    //workers running at once, threads unless virtual threads are given a concurrency of their own
+    int getWorkers(int threads) {
+        return virtualThreads && concurrency > 0 ? concurrency : threads;
+    }
+
+    public int getReaders() {
+        return readers;
+    }
+
+    public CodecOptions setReaders(int readers) {
+        this.readers = readers;
+        return this;
+    }
+
+    public int getTransformers() {
+        return transformers;
+    }
+
+    public CodecOptions setTransformers(int transformers) {
+        this.transformers = transformers;
+        return this;
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    public CodecOptions setWriters(int writers) {
+        this.writers = writers;
+        return this;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    public CodecOptions setSegmentThreshold(long segmentThreshold) {
+        this.segmentThreshold = segmentThreshold;
+        return this;
+    }
+
+    public int getSegmentThreads() {
+        return segmentThreads;
+    }
+
+    public CodecOptions setSegmentThreads(int segmentThreads) {
+        this.segmentThreads = segmentThreads;
+        return this;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public CodecOptions setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public TransformPipeline getTransforms() {
+        return transforms;
+    }
+
+    public CodecOptions setTransforms(TransformPipeline transforms) {
+        this.transforms = transforms;
+        return this;
+    }
+}
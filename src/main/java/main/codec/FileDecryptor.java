@@ -1,97 +1,365 @@
 package main.codec;
 
-import main.Utils.EncryptionUtils;
+import main.codec.transform.TransformPipeline;
 import main.fs.FileSystem;
+import main.fs.PackReader;
 import main.fs.beans.Directory;
 import main.fs.beans.FileInfo;
+import main.metrics.Metrics;
+import main.metrics.Phase;
 
-import java.nio.file.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FileDecryptor {
-    private final byte[] key;
+    //files decrypted one after another by a single task
+    private static final int BATCH_SIZE = 16;
     private final Path target;
-    private final FileSystem filesystem;
-    private final Function<byte[], byte[]> dataTransformer;
+    private final byte[] key;
+    private final Path root;
+    private final CodecOptions options;
+    //directories kept in memory when only part of the store is decrypted, which then reads just the index records it reaches
+    private final int lazyCacheSize;
+    //opened once decrypt knows how much of the store it needs
+    private FileSystem filesystem;
+    //root of the store, blobs are found relative to it
+    private Path rootPath;
+    //directory of the store that target stands for, the root unless only part of the store is decrypted
+    private Path base;
+    private FileTransformer transformer;
+    private PackReader packReader;
+    //null with virtual threads, which get a task per file instead
     private final ForkJoinPool threadpool;
-    private final AtomicInteger counter = new AtomicInteger(0);
+    private final int workers;
+    private final boolean virtual;
+    //files submitted to virtual threads and not done yet
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Metrics metrics;
 
-    public FileDecryptor(byte[] key, Path root, Path target, Function<byte[], byte[]> dataTransformer, int threads) {
-        this.key = key;
+    public FileDecryptor(byte[] key, Path root, Path target, int threads) {
+        this(key, root, target, threads, new CodecOptions());
+    }
+
+    public FileDecryptor(byte[] key, Path root, Path target, int threads, CodecOptions options) {
+        this(key, root, target, threads, options, 0);
+    }
+
+    //with lazyCacheSize > 0, a path or glob opens the store lazily keeping at most that many directories in memory
+    public FileDecryptor(byte[] key, Path root, Path target, int threads, CodecOptions options, int lazyCacheSize) {
         this.target = target;
-        this.filesystem = new FileSystem(root, key);
-        this.dataTransformer = dataTransformer;
-        this.threadpool = new ForkJoinPool(threads, pool -> {
-            final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
-            worker.setName("decryption" + worker.getPoolIndex());
-            return worker;
-        }, null, false);
+        this.key = key;
+        this.root = root;
+        this.options = options;
+        this.lazyCacheSize = lazyCacheSize;
+        this.workers = options.getWorkers(threads);
+        this.virtual = options.isVirtualThreads();
+        this.metrics = options.getMetrics();
+        if (virtual) {
+            this.threadpool = null;
+            metrics.setQueueDepth(pending::get);
+        } else {
+            this.threadpool = new ForkJoinPool(threads, pool -> {
+                final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                worker.setName("decryption" + worker.getPoolIndex());
+                return worker;
+            }, null, false);
+            metrics.setQueueDepth(() -> threadpool.getQueuedTaskCount() + threadpool.getQueuedSubmissionCount());
+        }
     }
 
+    //everything in the store
     public void decrypt() {
-        final Directory rootDir = filesystem.getRoot();
-        threadpool.invoke(new Task(rootDir, rootDir));
-        threadpool.shutdown();
+        decrypt(Paths.get(""), null);
+    }
+
+    /*
+        only what lies at path, relative to the store root, and with a glob only the files and directories below path matching it,
+        see FileSystem.find. output is re-rooted at the parent of path, so decrypting a/b restores target/b.
+        path must stay inside the store, an absolute one or one climbing out with .. would be restored outside target
+     */
+    public void decrypt(Path path, final String glob) {
+        if (path.isAbsolute() || path.normalize().startsWith("..")) {
+            throw new IllegalArgumentException("Path must be relative to the store root and inside it : " + path);
+        }
+        path = path.normalize();
+        open(path.toString().isEmpty() && glob == null ? 0 : lazyCacheSize);
+        final Path parent = path.getParent();
+        base = parent == null ? rootPath : rootPath.resolve(parent);
+        final Selection selection = glob == null ? select(path) : select(path, glob);
+        createDirectories(selection);
+        try {
+            if (virtual) {
+                decryptPerFile(selection);
+            } else {
+                threadpool.invoke(new SelectionTask(selection));
+            }
+        } finally {
+            if (threadpool != null) {
+                threadpool.shutdown();
+            }
+            transformer.close();
+        }
+    }
+
+    private void open(final int lazyCacheSize) {
+        filesystem = new FileSystem(root, key, lazyCacheSize);
+        rootPath = filesystem.getRoot().getPath();
+        base = rootPath;
+        transformer = new FileTransformer(filesystem.getKeyStream(), options);
+        packReader = new PackReader(filesystem.getKeyStream());
+    }
+
+    private Selection select(final Path path) {
+        final Selection selection = new Selection();
+        final Directory dir = filesystem.findDir(path);
+        if (dir != null) {
+            selection.dirs.add(dir);
+            return selection;
+        }
+        final Directory parent = filesystem.findDir(path.getParent());
+        final FileInfo file = parent == null ? null : parent.getFile(path.getFileName().toString());
+        if (file == null) {
+            throw new IllegalArgumentException("Nothing to decrypt at : " + path);
+        }
+        selection.add(parent, file);
+        return selection;
+    }
+
+    //matches come sorted, so everything below a matched directory follows it and is already covered by it
+    private Selection select(final Path path, final String glob) {
+        final Selection selection = new Selection();
+        final boolean all = path.toString().isEmpty();
+        String coveredDir = null;
+        for (final String match : filesystem.find(glob)) {
+            final Path matched = Paths.get(match);
+            if ((!all && !matched.startsWith(path)) || (coveredDir != null && match.startsWith(coveredDir))) {
+                continue;
+            }
+            if (match.endsWith("/")) {
+                final Directory dir = filesystem.findDir(matched);
+                if (dir != null) {
+                    selection.dirs.add(dir);
+                    coveredDir = match;
+                }
+            } else {
+                final Directory parent = filesystem.findDir(matched.getParent());
+                final FileInfo file = parent == null ? null : parent.getFile(matched.getFileName().toString());
+                if (file != null) {
+                    selection.add(parent, file);
+                }
+            }
+        }
+        System.out.println("Selected : " + selection.dirs.size() + " directories and " + selection.fileCount() + " files matching " + glob);
+        return selection;
+    }
+
+    //a virtual thread per file, blocking on io costs no platform thread, at most workers files are decrypted at once
+    private void decryptPerFile(final Selection selection) {
+        final ExecutorService executorService = new MyExecutorServiceBuilder(workers, "decryption").setVirtual(true).build();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Deque<Directory> dirs = new ArrayDeque<>(selection.dirs);
+        try {
+            for (final Map.Entry<Directory, List<FileInfo>> entry : selection.files.entrySet()) {
+                final Path decryptedDir = decryptedDir(entry.getKey());
+                for (final FileInfo fileInfo : entry.getValue()) {
+                    execute(executorService, decryptedDir, fileInfo, failure);
+                }
+            }
+            while (!dirs.isEmpty() && failure.get() == null) {
+                final Directory dir = dirs.pop();
+                final Path decryptedDir = decryptedDir(dir);
+                for (final FileInfo fileInfo : dir.getAllFiles()) {
+                    execute(executorService, decryptedDir, fileInfo, failure);
+                }
+                new ArrayList<>(dir.getAllSubDirs()).forEach(dirs::push);
+            }
+        } finally {
+            executorService.shutdown();
+            awaitTermination(executorService);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
     }
 
-    private class Task extends RecursiveAction {
+    private void execute(final ExecutorService executorService, final Path decryptedDir, final FileInfo fileInfo, final AtomicReference<RuntimeException> failure) {
+        pending.incrementAndGet();
+        executorService.execute(() -> {
+            try {
+                metrics.fileDone(decryptFile(decryptedDir, fileInfo));
+            } catch (IOException | RuntimeException ex) {
+                failure.compareAndSet(null, new RuntimeException("Failed for : " + decryptedDir.resolve(fileInfo.getName()), ex));
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private static void awaitTermination(final ExecutorService executorService) {
+        try {
+            while (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                //files still being decrypted
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for decryption", ex);
+        }
+    }
+
+    //every needed directory is created upfront, so file tasks never wait on each other for a parent directory
+    private void createDirectories(final Selection selection) {
+        final Deque<Directory> pending = new ArrayDeque<>(selection.dirs);
+        try {
+            for (final Directory dir : selection.files.keySet()) {
+                Files.createDirectories(decryptedDir(dir));
+            }
+            while (!pending.isEmpty()) {
+                final Directory dir = pending.pop();
+                Files.createDirectories(decryptedDir(dir));
+                new ArrayList<>(dir.getAllSubDirs()).forEach(pending::push);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error creating directories in : " + target, ex);
+        }
+    }
+
+    private Path decryptedDir(final Directory dir) {
+        return target.resolve(base.relativize(dir.getPath()));
+    }
+
+    //whole directories, plus single files grouped by the directory they are in
+    private static class Selection {
+        private final List<Directory> dirs = new ArrayList<>();
+        private final Map<Directory, List<FileInfo>> files = new LinkedHashMap<>();
+
+        private void add(final Directory dir, final FileInfo file) {
+            files.computeIfAbsent(dir, unused -> new ArrayList<>()).add(file);
+        }
+
+        private int fileCount() {
+            return files.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private class SelectionTask extends RecursiveAction {
+
+        private final Selection selection;
+
+        private SelectionTask(Selection selection) {
+            this.selection = selection;
+        }
+
+        @Override
+        protected void compute() {
+            final List<RecursiveAction> tasks = new ArrayList<>();
+            for (final Map.Entry<Directory, List<FileInfo>> entry : selection.files.entrySet()) {
+                tasks.add(new FileTask(decryptedDir(entry.getKey()), entry.getValue(), 0, entry.getValue().size()));
+            }
+            for (final Directory dir : selection.dirs) {
+                tasks.add(new DirTask(dir));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    //splits a directory into batches of its files plus one task per subdir, so even a flat directory uses every worker
+    private class DirTask extends RecursiveAction {
 
-        private final Directory root;
         private final Directory dir;
 
-        private Task(Directory root, Directory dir) {
-            this.root = root;
+        private DirTask(Directory dir) {
             this.dir = dir;
         }
 
         @Override
         protected void compute() {
-            final List<ForkJoinTask<?>> allTasks = new ArrayList<>();
-            try {
-                final Path rootPath = root.getPath();
-                final Path decryptedDir = target.resolve(rootPath.relativize(dir.getPath()));
-                Files.createDirectories(decryptedDir);
-                for (final FileInfo fileInfo : dir.getAllFiles()) {
-                    final Path encryptedFile = rootPath.resolve(fileInfo.getEncryptedFilePath());
-                    final Path decryptedFile = decryptedDir.resolve(fileInfo.getName());
-                    if (fileInfo.isRegularFile()) {
-                        byte[] data = Files.readAllBytes(encryptedFile);
-                        EncryptionUtils.decrypt(data, key);
-                        data = dataTransformer.apply(data);
-                        Files.createFile(decryptedFile);
-                        Files.write(decryptedFile, data);
-                    } else if (fileInfo.isInternalSymlinkFile()) {
-                        final Path linkedFile = target.resolve(fileInfo.getSymlinkTarget());
-                        Files.createSymbolicLink(decryptedFile, linkedFile);
-                    } else {
-                        Files.createSymbolicLink(decryptedFile, Paths.get(fileInfo.getSymlinkTarget()));
-                    }
-                    logProgress();
-                }
+            final Path decryptedDir = decryptedDir(dir);
+            final List<RecursiveAction> tasks = new ArrayList<>();
+            final List<FileInfo> files = new ArrayList<>(dir.getAllFiles());
+            if (!files.isEmpty()) {
+                tasks.add(new FileTask(decryptedDir, files, 0, files.size()));
+            }
+            for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+                tasks.add(new DirTask(subdir));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    //files[from, to) of one directory, halved until small enough to run on one worker
+    private class FileTask extends RecursiveAction {
 
-                for (final Directory subdir : dir.getAllSubDirs()) {
-                    allTasks.add(threadpool.submit(new Task(root, subdir)));
+        private final Path decryptedDir;
+        private final List<FileInfo> files;
+        private final int from;
+        private final int to;
+
+        private FileTask(Path decryptedDir, List<FileInfo> files, int from, int to) {
+            this.decryptedDir = decryptedDir;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new FileTask(decryptedDir, files, from, mid), new FileTask(decryptedDir, files, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                final FileInfo fileInfo = files.get(i);
+                try {
+                    metrics.fileDone(decryptFile(decryptedDir, fileInfo));
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed for : " + decryptedDir.resolve(fileInfo.getName()), ex);
                 }
-                allTasks.forEach(task -> {
-                    try {
-                        task.get();
-                    } catch (Exception ex) {
-                        throw new RuntimeException(ex);
-                    }
-                });
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
             }
         }
+    }
 
-        private void logProgress() {
-            if ((counter.incrementAndGet()) % 10 == 0) {
-                System.out.println("Finished : " + counter.get());
-            }
+    //returns number of bytes written
+    private long decryptFile(final Path decryptedDir, final FileInfo fileInfo) throws IOException {
+        final Path encryptedFile = rootPath.resolve(fileInfo.getEncryptedFilePath());
+        final Path decryptedFile = decryptedDir.resolve(fileInfo.getName());
+        if (fileInfo.isPacked()) {
+            Files.createFile(decryptedFile);
+            final long start = metrics.start();
+            final byte[] data = packReader.read(rootPath, fileInfo);
+            metrics.record(Phase.READ, start);
+            return transformer.decode(data, decryptedFile, TransformPipeline.of(fileInfo.getTransforms()));
+        } else if (fileInfo.isRegularFile()) {
+            Files.createFile(decryptedFile);
+            //stages recorded with the file are reversed after decryption
+            return transformer.decode(encryptedFile, decryptedFile, TransformPipeline.of(fileInfo.getTransforms()));
+        } else if (fileInfo.isInternalSymlinkFile()) {
+            Files.createSymbolicLink(decryptedFile, linkTarget(fileInfo));
+        } else {
+            Files.createSymbolicLink(decryptedFile, Paths.get(fileInfo.getSymlinkTarget()));
         }
+        return 0;
+    }
+
+    //where the file an internal symlink points to is restored. re-rooted like the rest when it lies below base,
+    //otherwise where decrypting the whole store would put it
+    private Path linkTarget(final FileInfo fileInfo) {
+        final Path linked = rootPath.resolve(fileInfo.getSymlinkTarget());
+        return target.resolve((linked.startsWith(base) ? base : rootPath).relativize(linked));
     }
 }
@@ -1,19 +1,31 @@
 package main.codec;
 
+import main.Utils.EncryptionUtils;
+import main.codec.transform.TransformPipeline;
 import main.enums.FileType;
 import main.fs.FileSystem;
+import main.fs.PackWriter;
 import main.fs.beans.CommitResult;
+import main.fs.beans.FileInfo;
+import main.metrics.Metrics;
+import main.metrics.Phase;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static main.Utils.EncryptionUtils.*;
 import static main.enums.FileType.*;
@@ -25,131 +37,308 @@ public class FileEncryptor extends SimpleFileVisitor<Path> {
     //target directory
     private final Path target;
     private final FileSystem filesystem;
+    private final FileTransformer transformer;
+    private final boolean hash;
+    private final boolean dedup;
+    private final TransformPipeline transforms;
+    //null unless small files are packed
+    private final PackWriter packWriter;
+    private final long packThreshold;
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(EncryptionUtils::newDigest);
+    private final int threads;
     private final ExecutorService executorService;
-    private final List<Future<EncryptionStatus>> allFutures = new ArrayList<>();
+    //files submitted but not finished yet, at most maxInFlight
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Map<EncryptionStatus, LongAdder> statusCounts = new EnumMap<>(EncryptionStatus.class);
+    private final AtomicLong finishedCount = new AtomicLong(0);
+    //first failure, reported at commit
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final Metrics metrics;
 
 
     public FileEncryptor(byte[] key, Path root, Path target, int threads) {
+        this(key, root, target, threads, new CodecOptions());
+    }
+
+    public FileEncryptor(byte[] key, Path root, Path target, int threads, CodecOptions options) {
         this.key = key;
         this.root = root;
         this.target = target;
         this.filesystem = new FileSystem(target, key);
-        this.executorService = new MyExecutorServiceBuilder(threads, "encryption").build();
+        this.transformer = new FileTransformer(filesystem.getKeyStream(), options);
+        this.hash = options.isHash();
+        this.dedup = options.isDedup();
+        this.transforms = options.getTransforms();
+        //content named blobs can not be shared from inside a pack, dedup wins
+        this.packThreshold = dedup ? 0 : Math.min(options.getPackThreshold(), PackWriter.PACK_SIZE);
+        this.packWriter = packThreshold > 0 ? new PackWriter(target, filesystem.getKeyStream()) : null;
+        this.threads = threads;
+        final int workers = options.getWorkers(threads);
+        this.executorService = new MyExecutorServiceBuilder(workers, "encryption").setVirtual(options.isVirtualThreads()).build();
+        this.maxInFlight = options.getQueueSize() > 0 ? options.getQueueSize() : workers * CodecOptions.QUEUE_SIZE_PER_THREAD;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.metrics = options.getMetrics();
+        metrics.setQueueDepth(() -> maxInFlight - inFlight.availablePermits());
+        for (final EncryptionStatus status : EncryptionStatus.values()) {
+            statusCounts.put(status, new LongAdder());
+        }
+    }
+
+    //scans root in parallel, files are handed to the encryption workers as they are found. returns number of files found
+    public long addAll() {
+        return new TreeScanner(threads).scan(root, this::visitFile);
     }
 
     @Override
     public FileVisitResult visitFile(Path source, BasicFileAttributes attrs) {
-        allFutures.add(executorService.submit(() -> {
-            final Thread currentThread = Thread.currentThread();
-            final String threadName = currentThread.getName();
-            currentThread.setName(threadName + "_" + source.toString());
-            try {
-                final FileType fileType = getFileType(source, root);
-                if (fileType == NON_REGULAR) {
-                    System.out.println("Found non-regular source : " + source);
-                    return EncryptionStatus.NOOP;
-                }
-                String name = getRandomName(fileType);
-                final Path targetPath = getUniqueAbsolutePath(fileType, name);
-                Files.createDirectories(targetPath.getParent());
-                Files.createFile(targetPath);
-
-                boolean newFile;
-                if (fileType == REGULAR) {
-                    newFile = addRegularFile(source, targetPath);
-                } else {
-                    //checks if symlink target source exists
-                    if (Files.notExists(source)) {
-                        return EncryptionStatus.FILE_NOT_EXISTS;
-                    }
-                    newFile = handleSymlinkFile(source, targetPath);
+        if (failure.get() != null) {
+            return FileVisitResult.TERMINATE;
+        }
+        //blocks the scanner while the workers are behind, so queued work stays bounded
+        inFlight.acquireUninterruptibly();
+        try {
+            executorService.execute(() -> {
+                final Thread currentThread = Thread.currentThread();
+                final String threadName = currentThread.getName();
+                currentThread.setName(threadName + "_" + source.toString());
+                try {
+                    final EncryptionStatus status = encryptFile(source, attrs);
+                    final boolean encrypted = attrs.isRegularFile() && (status == EncryptionStatus.ADD || status == EncryptionStatus.UPDATE);
+                    finished(status, encrypted ? attrs.size() : 0);
+                } catch (Exception ex) {
+                    failure.compareAndSet(null, new RuntimeException("Failed for : " + source, ex));
+                } finally {
+                    currentThread.setName(threadName);
+                    inFlight.release();
                 }
-                return newFile ? EncryptionStatus.ADD : EncryptionStatus.UPDATE;
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed for : " + source, ex);
-            } finally {
-                currentThread.setName(threadName);
-            }
-        }));
+            });
+        } catch (RuntimeException ex) {
+            inFlight.release();
+            throw ex;
+        }
         return FileVisitResult.CONTINUE;
     }
 
-    private boolean addRegularFile(Path file, Path targetPath) throws IOException {
-        byte[] data = Files.readAllBytes(file);
-        encrypt(data, key);
-        Files.write(targetPath, data);
-        return filesystem.addOrUpdateFile(root.getParent().relativize(file), target.relativize(targetPath));
-    }
+    private EncryptionStatus encryptFile(Path source, BasicFileAttributes attrs) throws IOException {
+        final long start = metrics.start();
+        final FileType fileType = getFileType(source, attrs, root);
+        metrics.record(Phase.STAT, start);
+        if (fileType == NON_REGULAR) {
+            System.out.println("Found non-regular source : " + source);
+            return EncryptionStatus.NOOP;
+        }
+        final Path original = root.getParent().relativize(source);
+        final FileInfo existing = filesystem.getFile(original);
+        if (fileType == REGULAR) {
+            if (isUnchanged(source, original, attrs, existing)) {
+                return EncryptionStatus.UNCHANGED;
+            }
+        } else {
+            //checks if symlink target source exists
+            if (Files.notExists(source)) {
+                return EncryptionStatus.FILE_NOT_EXISTS;
+            }
+            if (existing != null && !existing.isRegularFile() && getLinked(source).toString().equals(existing.getSymlinkTarget())) {
+                return EncryptionStatus.UNCHANGED;
+            }
+        }
+        if (fileType == REGULAR && dedup) {
+            return addDedupFile(source, original, attrs) ? EncryptionStatus.ADD : EncryptionStatus.UPDATE;
+        }
+        if (fileType == REGULAR && attrs.size() < packThreshold) {
+            return addPackedFile(source, original, attrs) ? EncryptionStatus.ADD : EncryptionStatus.UPDATE;
+        }
+        String name = getRandomName(fileType);
+        final Path targetPath = getUniqueAbsolutePath(fileType, name);
+        Files.createDirectories(targetPath.getParent());
+        Files.createFile(targetPath);
 
-    private boolean handleSymlinkFile(Path source, Path targetPath) throws IOException {
         boolean newFile;
-        Path linked = source.toRealPath().toAbsolutePath();
+        if (fileType == REGULAR) {
+            newFile = addRegularFile(source, original, targetPath, attrs);
+        } else {
+            newFile = handleSymlinkFile(source, targetPath);
+        }
+        return newFile ? EncryptionStatus.ADD : EncryptionStatus.UPDATE;
+    }
+
+    //counts every file as soon as it is done, instead of in submission order at commit
+    private void finished(EncryptionStatus status, long bytes) {
+        statusCounts.get(status).increment();
+        finishedCount.incrementAndGet();
+        metrics.fileDone(bytes);
+    }
+
+    private boolean index(Path original, FileInfo fileInfo) {
+        final long start = metrics.start();
+        try {
+            return filesystem.addOrUpdateFile(original, fileInfo);
+        } finally {
+            metrics.record(Phase.INDEX, start);
+        }
+    }
+
+    //same size and modified time as the indexed entry, or the same contents when hashes are kept
+    private boolean isUnchanged(Path source, Path original, BasicFileAttributes attrs, FileInfo existing) throws IOException {
+        if (existing == null || !existing.isRegularFile() || existing.getSize() == null || existing.getSize() != attrs.size()) {
+            return false;
+        }
+        final long modifiedTime = attrs.lastModifiedTime().toMillis();
+        if (existing.getModifiedTime() != null && existing.getModifiedTime() == modifiedTime) {
+            return true;
+        }
+        if (!hash || existing.getHash() == null) {
+            return false;
+        }
+        final MessageDigest digest = startDigest();
+        transformer.digest(source, digest);
+        if (!existing.getHash().equals(toHex(digest.digest()))) {
+            return false;
+        }
+        //only touched, keep the encrypted file and remember the new modified time
+        index(original, existing.withModifiedTime(modifiedTime));
+        return true;
+    }
+
+    private boolean addRegularFile(Path file, Path original, Path targetPath, BasicFileAttributes attrs) throws IOException {
+        final MessageDigest digest = hash ? startDigest() : null;
+        encode(file, targetPath, targetPath, attrs, digest);
+        final String fileHash = digest == null ? null : toHex(digest.digest());
+        return index(original, newFileInfo(original, targetPath, attrs, fileHash));
+    }
+
+    //written to targetPath with the key stream of blob, which is where it ends up
+    private void encode(Path file, Path targetPath, Path blob, BasicFileAttributes attrs, MessageDigest digest) throws IOException {
+        if (transforms.isEmpty()) {
+            transformer.transform(file, targetPath, attrs.size(), digest, transformer.forBlob(blob));
+        } else {
+            transformer.encode(file, targetPath, transforms, digest, transformer.forBlob(blob));
+        }
+    }
+
+    private FileInfo newFileInfo(Path original, Path targetPath, BasicFileAttributes attrs, String fileHash) {
+        return new FileInfo(original.getFileName().toString(), target.relativize(targetPath), null, null,
+                attrs.size(), attrs.lastModifiedTime().toMillis(), fileHash, transforms.getIds());
+    }
+
+    //read whole and appended to the current pack, no file of its own is created
+    private boolean addPackedFile(Path file, Path original, BasicFileAttributes attrs) throws IOException {
+        long start = metrics.start();
+        final byte[] data = Files.readAllBytes(file);
+        metrics.record(Phase.READ, start);
+        String fileHash = null;
+        if (hash) {
+            final MessageDigest digest = startDigest();
+            digest.update(data);
+            fileHash = toHex(digest.digest());
+        }
+        final byte[] encoded = transformer.encode(data, transforms);
+        start = metrics.start();
+        //encrypted on the way in
+        final PackWriter.Slot slot = packWriter.append(encoded, encoded.length);
+        metrics.record(Phase.WRITE, start);
+        return index(original, new FileInfo(original.getFileName().toString(), slot.getPack(), null, null,
+                attrs.size(), attrs.lastModifiedTime().toMillis(), fileHash, transforms.getIds(), slot.getOffset(), slot.getLength()));
+    }
+
+    //blob is named after the contents, so identical files share it and an existing blob is never written again
+    private boolean addDedupFile(Path file, Path original, BasicFileAttributes attrs) throws IOException {
+        final MessageDigest digest = startDigest();
+        transformer.digest(file, digest);
+        final String fileHash = toHex(digest.digest());
+        final Path targetPath = getBlobPath(getContentName(fileHash, REGULAR));
+        if (Files.notExists(targetPath)) {
+            Files.createDirectories(targetPath.getParent());
+            //written aside and renamed, so a concurrent worker with the same contents never sees a partial blob
+            final Path tempPath = targetPath.resolveSibling(targetPath.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            encode(file, tempPath, targetPath, attrs, null);
+            Files.move(tempPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return index(original, newFileInfo(original, targetPath, attrs, fileHash));
+    }
+
+    //digests are seeded with the key, so content names do not reveal hashes of the plain contents,
+    //and with the transforms, so blobs of the same contents encoded differently are not shared
+    private MessageDigest startDigest() {
+        final MessageDigest digest = digests.get();
+        digest.reset();
+        digest.update(key);
+        if (!transforms.isEmpty()) {
+            digest.update(String.join(",", transforms.getIds()).getBytes(StandardCharsets.UTF_8));
+        }
+        return digest;
+    }
 
+    private boolean handleSymlinkFile(Path source, Path targetPath) throws IOException {
+        final Path linked = getLinked(source);
         //internal symlink i.e. symlink target is part of root directory which is getting encrypted
-        boolean isInternalSymlink = false;
-        if (linked.startsWith(root)) {
-            linked = root.getParent().relativize(linked);
-            isInternalSymlink = true;
+        final boolean isInternalSymlink = !linked.isAbsolute();
+        final long start = metrics.start();
+        try {
+            return filesystem.addOrUpdateSymlinkFile(root.getParent().relativize(source), target.relativize(targetPath), linked, isInternalSymlink);
+        } finally {
+            metrics.record(Phase.INDEX, start);
         }
-        newFile = filesystem.addOrUpdateSymlinkFile(root.getParent().relativize(source), targetPath, linked, isInternalSymlink);
-        return newFile;
+    }
+
+    //symlink target, relative to parent of root for internal symlinks
+    private Path getLinked(Path source) throws IOException {
+        final Path linked = source.toRealPath().toAbsolutePath();
+        return linked.startsWith(root) ? root.getParent().relativize(linked) : linked;
     }
 
     public void commit() {
-        final AtomicInteger added = new AtomicInteger(0);
-        final AtomicInteger updated = new AtomicInteger(0);
-        final AtomicInteger noop = new AtomicInteger(0);
-        final AtomicInteger notExists = new AtomicInteger(0);
-        final AtomicInteger counter = new AtomicInteger(0);
-        allFutures.forEach(f -> {
-            try {
-                final EncryptionStatus status = f.get();
-                switch (status) {
-                    case NOOP:
-                        noop.incrementAndGet();
-                        break;
-                    case ADD:
-                        added.incrementAndGet();
-                        break;
-                    case UPDATE:
-                        updated.incrementAndGet();
-                        break;
-                    case FILE_NOT_EXISTS:
-                        notExists.incrementAndGet();
-                        break;
-                }
-                if ((counter.incrementAndGet()) % 10 == 0) {
-                    System.out.println("Finished : " + counter.get());
-                }
-            } catch (ExecutionException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        System.out.println(counter.get() + " files are precessed");
-        final CommitResult result = filesystem.commit();
-        System.out.println("NoOp : " + noop);
-        System.out.println("Added : " + added);
-        System.out.println("Updated : " + updated);
-        System.out.println("Non-existing files : " + notExists);
+        //every permit back means every submitted file is done
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+        if (failure.get() != null) {
+            executorService.shutdown();
+            transformer.close();
+            throw failure.get();
+        }
+        System.out.println(finishedCount.get() + " files are precessed");
+        closePacks();
+        final CommitResult result = filesystem.commit(true);
+        System.out.println("NoOp : " + statusCounts.get(EncryptionStatus.NOOP));
+        System.out.println("Unchanged : " + statusCounts.get(EncryptionStatus.UNCHANGED));
+        System.out.println("Added : " + statusCounts.get(EncryptionStatus.ADD));
+        System.out.println("Updated : " + statusCounts.get(EncryptionStatus.UPDATE));
+        System.out.println("Non-existing files : " + statusCounts.get(EncryptionStatus.FILE_NOT_EXISTS));
         System.out.println("Deleted : " + result.getOrphaned() + " orphaned files from the filesystem");
         System.out.println("Updated : " + result.getDangling() + " dangling entries in the filesystem");
         executorService.shutdown();
+        transformer.close();
+    }
+
+    private void closePacks() {
+        if (packWriter == null) {
+            return;
+        }
+        try {
+            packWriter.close();
+        } catch (IOException ex) {
+            executorService.shutdown();
+            throw new RuntimeException("Error closing pack files", ex);
+        }
+    }
+
+    //so that files do not get cluttered in same directory, same as git
+    private Path getBlobPath(String name) {
+        return target.resolve(name.substring(0, 4)).resolve(name.substring(2));
     }
 
     private Path getUniqueAbsolutePath(final FileType fileType, String name) {
-        //so that files do not get cluttered in same directory, same as git
-        String directoryName = name.substring(0, 4);
-        Path targetPath = target.resolve(directoryName).resolve(name.substring(2));
+        Path targetPath = getBlobPath(name);
         //ensure unique file
         while (Files.exists(targetPath)) {
             name = getRandomName(fileType);
-            directoryName = name.substring(0, 2);
-            targetPath = target.resolve(directoryName).resolve(name.substring(2));
+            targetPath = getBlobPath(name);
         }
         return targetPath;
     }
 
     private enum EncryptionStatus {
-        NOOP, ADD, UPDATE, FILE_NOT_EXISTS
+        NOOP, UNCHANGED, ADD, UPDATE, FILE_NOT_EXISTS
     }
 }
@@ -0,0 +1,452 @@
+package main.codec;
+
+import main.Utils.DecryptingInputStream;
+import main.Utils.EncryptingOutputStream;
+import main.Utils.KeyStream;
+import main.Utils.XorKeyStream;
+import main.codec.transform.TransformPipeline;
+import main.enums.IoMode;
+import main.metrics.Metrics;
+import main.metrics.Phase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.*;
+import static main.Utils.EncryptionUtils.encrypt;
+
+//moves a file through the key stream, either as a whole, chunk by chunk, through mapped regions or, when large, in segments on several threads
+public class FileTransformer {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int STREAM_CHUNK_SIZE = 64 << 10;
+    //a single mapping can not exceed Integer.MAX_VALUE bytes
+    private static final long MAX_REGION = 1L << 30;
+    //unit of work when a large file is split between threads
+    private static final long SEGMENT_SIZE = 16L << 20;
+    //buffers and chunks kept for reuse, enough for the files and segments transformed at once by the platform threads
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final KeyStream keyStream;
+    private final IoMode ioMode;
+    private final long mmapThreshold;
+    private final Metrics metrics;
+    //null unless files go through the staged pipeline
+    private final StagedTransformer staged;
+    private final long segmentThreshold;
+    private final int segmentThreads;
+    //started with the first file split into segments
+    private ExecutorService segmentPool;
+    //reusable buffers, shared instead of one per thread since virtual threads live for a single file.
+    //at most MAX_POOLED are kept, the ones given back beyond that are left to the garbage collector
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final int chunkSize;
+    //for transformed files, which go through streams instead of channels
+    private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+
+    public FileTransformer(byte[] key) {
+        this(key, new CodecOptions());
+    }
+
+    public FileTransformer(byte[] key, CodecOptions options) {
+        this(key, options, DEFAULT_CHUNK_SIZE);
+    }
+
+    public FileTransformer(byte[] key, CodecOptions options, int chunkSize) {
+        this(new XorKeyStream(key), options, chunkSize);
+    }
+
+    //keyStream of the store, each blob is transformed with the key stream derived for it
+    public FileTransformer(KeyStream keyStream, CodecOptions options) {
+        this(keyStream, options, DEFAULT_CHUNK_SIZE);
+    }
+
+    public FileTransformer(KeyStream keyStream, CodecOptions options, int chunkSize) {
+        this.keyStream = keyStream;
+        this.ioMode = options.getIoMode();
+        this.mmapThreshold = options.getMmapThreshold();
+        this.metrics = options.getMetrics();
+        this.chunkSize = chunkSize;
+        this.staged = ioMode == IoMode.PIPELINE ? new StagedTransformer(options, chunkSize) : null;
+        this.segmentThreshold = options.getSegmentThreshold();
+        this.segmentThreads = options.getSegmentThreads();
+    }
+
+    //encryption and decryption are the same operation, returns number of bytes written.
+    //target is the blob, see decode for the other way around
+    public long transform(Path source, Path target) throws IOException {
+        return transform(source, target, Files.size(source));
+    }
+
+    public long transform(Path source, Path target, long size) throws IOException {
+        return transform(source, target, size, null);
+    }
+
+    //digest, when given, is updated with the contents of source before they are transformed
+    public long transform(Path source, Path target, long size, MessageDigest digest) throws IOException {
+        return transform(source, target, size, digest, forBlob(target));
+    }
+
+    //blobStream from forBlob, for blobs written under another name than the one they end up with
+    public long transform(Path source, Path target, long size, MessageDigest digest, KeyStream blobStream) throws IOException {
+        //a digest needs the contents in order, so those files are left to a single thread
+        if (segmentThreshold > 0 && size >= segmentThreshold && segmentThreads > 1 && digest == null) {
+            return transformSegmented(source, target, size, blobStream);
+        }
+        switch (resolve(size)) {
+            case HEAP:
+                return transformHeap(source, target, digest, blobStream);
+            case MMAP:
+                return transformMapped(source, target, size, digest, blobStream);
+            case PIPELINE:
+                return staged.transform(source, target, blobStream, digest);
+            default:
+                return transformStreaming(source, target, digest, blobStream);
+        }
+    }
+
+    public KeyStream forBlob(Path blob) {
+        return keyStream.forBlob(blob.getFileName().toString());
+    }
+
+    //contents go through the pipeline before being encrypted, returns number of bytes written to target
+    public long encode(Path source, Path target, TransformPipeline pipeline, MessageDigest digest) throws IOException {
+        return encode(source, target, pipeline, digest, forBlob(target));
+    }
+
+    public long encode(Path source, Path target, TransformPipeline pipeline, MessageDigest digest, KeyStream blobStream) throws IOException {
+        if (pipeline.isEmpty()) {
+            return transform(source, target, Files.size(source), digest, blobStream);
+        }
+        final byte[] chunk = acquireChunk();
+        try (final InputStream in = Files.newInputStream(source);
+             final EncryptingOutputStream encrypted = new EncryptingOutputStream(Files.newOutputStream(target), blobStream)) {
+            final OutputStream out = pipeline.encode(encrypted);
+            int read;
+            long start = metrics.start();
+            while ((read = in.read(chunk)) >= 0) {
+                metrics.record(Phase.READ, start);
+                start = metrics.start();
+                if (digest != null) {
+                    digest.update(chunk, 0, read);
+                }
+                //stages and encryption write through to target as they go, timed as one
+                out.write(chunk, 0, read);
+                metrics.record(Phase.TRANSFORM, start);
+                start = metrics.start();
+            }
+            //finishes the stages, which flush their trailing bytes through encrypted
+            out.close();
+            metrics.record(Phase.TRANSFORM, start);
+            return encrypted.getPosition();
+        } finally {
+            release(chunks, chunk);
+        }
+    }
+
+    //reverse of encode, source is the blob, returns number of bytes written to target
+    public long decode(Path source, Path target, TransformPipeline pipeline) throws IOException {
+        if (pipeline.isEmpty()) {
+            return transform(source, target, Files.size(source), null, forBlob(source));
+        }
+        final byte[] chunk = acquireChunk();
+        long written = 0;
+        try (final InputStream in = pipeline.decode(new DecryptingInputStream(Files.newInputStream(source), forBlob(source)));
+             final OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            long start = metrics.start();
+            while ((read = in.read(chunk)) >= 0) {
+                //reading goes through decryption and the stages
+                metrics.record(Phase.TRANSFORM, start);
+                start = metrics.start();
+                out.write(chunk, 0, read);
+                metrics.record(Phase.WRITE, start);
+                written += read;
+                start = metrics.start();
+            }
+        } finally {
+            release(chunks, chunk);
+        }
+        return written;
+    }
+
+    //packed files are small enough to go through the pipeline in memory
+    public byte[] encode(byte[] data, TransformPipeline pipeline) throws IOException {
+        if (pipeline.isEmpty()) {
+            return data;
+        }
+        final long start = metrics.start();
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length);
+        try (final OutputStream out = pipeline.encode(encoded)) {
+            out.write(data);
+        }
+        metrics.record(Phase.TRANSFORM, start);
+        return encoded.toByteArray();
+    }
+
+    //reverse of encode(byte[], pipeline) for already decrypted data, returns number of bytes written to target
+    public long decode(byte[] data, Path target, TransformPipeline pipeline) throws IOException {
+        final long start = metrics.start();
+        try {
+            if (pipeline.isEmpty()) {
+                Files.write(target, data);
+                return data.length;
+            }
+            try (final InputStream in = pipeline.decode(new ByteArrayInputStream(data));
+                 final OutputStream out = Files.newOutputStream(target)) {
+                return in.transferTo(out);
+            }
+        } finally {
+            metrics.record(pipeline.isEmpty() ? Phase.WRITE : Phase.TRANSFORM, start);
+        }
+    }
+
+    //reads source without writing anything, to compare its contents with a stored digest
+    public void digest(Path source, MessageDigest digest) throws IOException {
+        final ByteBuffer buffer = acquireBuffer();
+        final long start = metrics.start();
+        try (final FileChannel in = FileChannel.open(source, READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            release(buffers, buffer);
+        }
+        metrics.record(Phase.READ, start);
+    }
+
+    //cleared, given back to buffers once done
+    private ByteBuffer acquireBuffer() {
+        final ByteBuffer buffer = buffers.poll();
+        //direct, so the channels do not copy through a temporary buffer of their own
+        return buffer == null ? ByteBuffer.allocateDirect(chunkSize) : buffer.clear();
+    }
+
+    //given back to chunks once done
+    private byte[] acquireChunk() {
+        final byte[] chunk = chunks.poll();
+        return chunk == null ? new byte[STREAM_CHUNK_SIZE] : chunk;
+    }
+
+    //size is walked, but the pool never holds more than a few
+    private static <T> void release(final Queue<T> pool, final T item) {
+        if (pool.size() < MAX_POOLED) {
+            pool.add(item);
+        }
+    }
+
+    //stops the threads of the pipeline and of the segments, if any
+    public void close() {
+        if (staged != null) {
+            staged.shutdown();
+        }
+        synchronized (this) {
+            if (segmentPool != null) {
+                segmentPool.shutdown();
+            }
+        }
+    }
+
+    private IoMode resolve(final long size) {
+        if (ioMode != IoMode.AUTO) {
+            return ioMode;
+        }
+        return size >= mmapThreshold ? IoMode.MMAP : IoMode.STREAMING;
+    }
+
+    private long transformHeap(Path source, Path target, MessageDigest digest, KeyStream blobStream) throws IOException {
+        long start = metrics.start();
+        final byte[] data = Files.readAllBytes(source);
+        metrics.record(Phase.READ, start);
+        start = metrics.start();
+        if (digest != null) {
+            digest.update(data);
+        }
+        encrypt(data, 0, data.length, blobStream, 0);
+        metrics.record(Phase.TRANSFORM, start);
+        start = metrics.start();
+        Files.write(target, data);
+        metrics.record(Phase.WRITE, start);
+        return data.length;
+    }
+
+    private long transformStreaming(Path source, Path target, MessageDigest digest, KeyStream blobStream) throws IOException {
+        final ByteBuffer buffer = acquireBuffer();
+        try (final FileChannel in = FileChannel.open(source, READ);
+             final FileChannel out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            long position = 0;
+            int read;
+            long start = metrics.start();
+            while ((read = in.read(buffer)) >= 0) {
+                metrics.record(Phase.READ, start);
+                start = metrics.start();
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer.duplicate());
+                }
+                //position keeps the key offset correct across chunk boundaries
+                encrypt(buffer, 0, read, blobStream, position);
+                metrics.record(Phase.TRANSFORM, start);
+                start = metrics.start();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                metrics.record(Phase.WRITE, start);
+                position += read;
+                buffer.clear();
+                start = metrics.start();
+            }
+            return position;
+        } finally {
+            release(buffers, buffer);
+        }
+    }
+
+    //source is mapped read-only, target is mapped read-write at its final size, data never enters the heap
+    private long transformMapped(Path source, Path target, long size, MessageDigest digest, KeyStream blobStream) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, READ);
+             final FileChannel out = FileChannel.open(target, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            for (long position = 0; position < size; position += MAX_REGION) {
+                final long length = Math.min(MAX_REGION, size - position);
+                //pages are read in while copied, and written back by the OS later, so only read and transform are timed
+                long start = metrics.start();
+                final MappedByteBuffer from = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (digest != null) {
+                    digest.update(from.duplicate());
+                }
+                //mapping beyond the end of the file grows it, so target is preallocated region by region
+                final MappedByteBuffer to = out.map(FileChannel.MapMode.READ_WRITE, position, length);
+                to.put(from);
+                metrics.record(Phase.READ, start);
+                start = metrics.start();
+                encrypt(to, 0, (int) length, blobStream, position);
+                metrics.record(Phase.TRANSFORM, start);
+            }
+            return size;
+        }
+    }
+
+    //segments are claimed one at a time by the calling thread and by helpers from the segment pool, each reading and writing
+    //at its own position of channels shared by all of them. the caller works as well, so a busy pool never stalls the file
+    private long transformSegmented(Path source, Path target, long size, KeyStream blobStream) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, READ);
+             final FileChannel out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            //preallocated, so segments written out of order never extend the file under each other
+            out.write(ByteBuffer.allocate(1), size - 1);
+            final long segments = (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+            final AtomicLong next = new AtomicLong();
+            final Callable<Void> worker = () -> {
+                long segment;
+                while ((segment = next.getAndIncrement()) < segments) {
+                    final long from = segment * SEGMENT_SIZE;
+                    try {
+                        transformSegment(in, out, from, Math.min(size, from + SEGMENT_SIZE), blobStream);
+                    } catch (IOException | RuntimeException ex) {
+                        //the others stop at their next claim
+                        next.set(segments);
+                        throw ex;
+                    }
+                }
+                return null;
+            };
+            final List<Future<Void>> helpers = new ArrayList<>();
+            //claimed by a helper as it starts, or by the caller once done so the helper never touches the channels
+            final List<AtomicBoolean> claims = new ArrayList<>();
+            final ExecutorService pool = segmentPool();
+            for (long i = 1; i < Math.min(segments, segmentThreads); i++) {
+                final AtomicBoolean claim = new AtomicBoolean();
+                claims.add(claim);
+                helpers.add(pool.submit(() -> claim.compareAndSet(false, true) ? worker.call() : null));
+            }
+            IOException failure = null;
+            try {
+                worker.call();
+            } catch (IOException ex) {
+                failure = ex;
+            } catch (Exception ex) {
+                failure = new IOException("Failed for : " + source, ex);
+            }
+            //all segments are claimed by now, helpers still queued are dropped and only the running ones waited for.
+            //channels are closed once those are done with them
+            for (int i = 0; i < helpers.size(); i++) {
+                final Future<Void> helper = helpers.get(i);
+                if (claims.get(i).compareAndSet(false, true)) {
+                    helper.cancel(false);
+                    continue;
+                }
+                try {
+                    helper.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted transforming : " + source);
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException("Failed for : " + source, ex.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return size;
+        }
+    }
+
+    private void transformSegment(FileChannel in, FileChannel out, long from, long to, KeyStream blobStream) throws IOException {
+        final ByteBuffer buffer = acquireBuffer();
+        try {
+            long position = from;
+            while (position < to) {
+                long start = metrics.start();
+                buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("File shrank while being transformed, at : " + (position + buffer.position()));
+                    }
+                }
+                metrics.record(Phase.READ, start);
+                start = metrics.start();
+                buffer.flip();
+                encrypt(buffer, 0, buffer.limit(), blobStream, position);
+                metrics.record(Phase.TRANSFORM, start);
+                start = metrics.start();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + buffer.position());
+                }
+                metrics.record(Phase.WRITE, start);
+                position += buffer.limit();
+            }
+        } finally {
+            release(buffers, buffer);
+        }
+    }
+
+    private synchronized ExecutorService segmentPool() {
+        if (segmentPool == null) {
+            segmentPool = new MyExecutorServiceBuilder(segmentThreads - 1, "segment").build();
+        }
+        return segmentPool;
+    }
+}
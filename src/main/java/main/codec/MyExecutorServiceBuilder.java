@@ -7,16 +7,51 @@ public class MyExecutorServiceBuilder {
 
     private final String name;
     private final int threads;
+    //a new virtual thread per task instead of a fixed pool, with at most threads tasks running at once
+    private boolean virtual;
+    //tasks that may wait for a thread, unbounded when 0. Beyond that the submitting thread runs the task itself
+    private int queueSize;
 
     public MyExecutorServiceBuilder(int threads, String name) {
         this.name = name;
         this.threads = threads;
     }
 
+    public MyExecutorServiceBuilder setVirtual(boolean virtual) {
+        this.virtual = virtual;
+        return this;
+    }
+
+    public MyExecutorServiceBuilder setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
     public ExecutorService build() {
+        if (virtual) {
+            return new BoundedExecutorService(newPerTaskExecutor(), threads);
+        }
+        if (queueSize > 0) {
+            return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                                          new MyThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+        }
         return Executors.newFixedThreadPool(threads, new MyThreadFactory());
     }
 
+    //virtual threads are looked up reflectively, so the code still builds and runs on java versions without them
+    private ExecutorService newPerTaskExecutor() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderClass.getMethod("name", String.class, long.class)
+                                               .invoke(Thread.class.getMethod("ofVirtual").invoke(null), name + "_", 1L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            System.out.println("Virtual threads are not available on java " + Runtime.version().feature() + ", using a platform thread per task");
+            return Executors.newCachedThreadPool(new MyThreadFactory());
+        }
+    }
+
     private class MyThreadFactory implements ThreadFactory {
         private final AtomicInteger counter = new AtomicInteger(0);
 
@@ -0,0 +1,271 @@
+package main.codec;
+
+import main.Utils.KeyStream;
+import main.metrics.Metrics;
+import main.metrics.Phase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.nio.file.StandardOpenOption.*;
+import static main.Utils.EncryptionUtils.encrypt;
+
+/*
+    moves files through separate read, encrypt and write stages, each with its own threads, shared by every worker.
+    chunks of a file are read one after the other, so digests see them in order, while chunks already read are encrypted
+    and written, and other files are read at the same time. chunks travel between the stages in buffers of a fixed pool,
+    which bounds the memory in flight. buffers are taken by the threads calling transform, so those are the ones held back
+    when the later stages fall behind; the readers also complete every read and must never wait for a buffer themselves
+ */
+class StagedTransformer {
+    //buffers per stage thread
+    private static final int BUFFERS_PER_THREAD = 4;
+
+    private final Metrics metrics;
+    private final BufferPool pool;
+    //runs the completion handlers of the asynchronous reads
+    private final ExecutorService readers;
+    private final ExecutorService transformers;
+    private final ExecutorService writers;
+    //never fuller than the pool, so adding never waits
+    private final BlockingQueue<Chunk> toTransform = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Chunk> toWrite = new LinkedBlockingQueue<>();
+
+    StagedTransformer(CodecOptions options, int chunkSize) {
+        this.metrics = options.getMetrics();
+        final int threads = options.getReaders() + options.getTransformers() + options.getWriters();
+        this.pool = new BufferPool(threads * BUFFERS_PER_THREAD, chunkSize);
+        this.readers = new MyExecutorServiceBuilder(options.getReaders(), "reader").build();
+        this.transformers = new MyExecutorServiceBuilder(options.getTransformers(), "transformer").build();
+        this.writers = new MyExecutorServiceBuilder(options.getWriters(), "writer").build();
+        for (int i = 0; i < options.getTransformers(); i++) {
+            transformers.execute(() -> run(toTransform, this::transform));
+        }
+        for (int i = 0; i < options.getWriters(); i++) {
+            writers.execute(() -> run(toWrite, this::write));
+        }
+    }
+
+    //blocks until source is written to target, returns number of bytes written
+    long transform(Path source, Path target, KeyStream keyStream, MessageDigest digest) throws IOException {
+        final Job job = new Job(AsynchronousFileChannel.open(source, Collections.singleton(READ), readers), keyStream, digest);
+        try {
+            job.out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING);
+            //one chunk read at a time, the next one is started once the previous one is handed to the transformers
+            long position = 0;
+            while (position >= 0) {
+                position = job.read(position);
+            }
+        } catch (IOException | RuntimeException ex) {
+            job.fail(ex);
+        }
+        try {
+            return job.done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted transforming : " + source);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException("Failed for : " + source, ex.getCause());
+        }
+    }
+
+    void shutdown() {
+        readers.shutdown();
+        transformers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    private void run(final BlockingQueue<Chunk> queue, final Stage stage) {
+        while (!Thread.currentThread().isInterrupted()) {
+            final Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            //chunks of a failed file are dropped
+            if (chunk.job.done.isDone()) {
+                chunk.job.finished(chunk, 0);
+                continue;
+            }
+            try {
+                stage.process(chunk);
+            } catch (IOException | RuntimeException ex) {
+                chunk.job.fail(ex);
+                chunk.job.finished(chunk, 0);
+            }
+        }
+    }
+
+    private void transform(final Chunk chunk) {
+        final long start = metrics.start();
+        encrypt(chunk.buffer, 0, chunk.buffer.limit(), chunk.job.keyStream, chunk.position);
+        metrics.record(Phase.TRANSFORM, start);
+        toWrite.add(chunk);
+    }
+
+    private void write(final Chunk chunk) throws IOException {
+        final long start = metrics.start();
+        final int length = chunk.buffer.limit();
+        long position = chunk.position;
+        while (chunk.buffer.hasRemaining()) {
+            position += chunk.job.out.write(chunk.buffer, position);
+        }
+        metrics.record(Phase.WRITE, start);
+        chunk.job.finished(chunk, length);
+    }
+
+    private interface Stage {
+        void process(Chunk chunk) throws IOException;
+    }
+
+    private static class Chunk {
+        private final Job job;
+        private final ByteBuffer buffer;
+        //in the file, also the key position of the first byte
+        private final long position;
+        private final long started;
+        //position of the next chunk once this one is read, -1 when there is none or the file failed
+        private final CompletableFuture<Long> next = new CompletableFuture<>();
+
+        private Chunk(Job job, ByteBuffer buffer, long position, long started) {
+            this.job = job;
+            this.buffer = buffer;
+            this.position = position;
+            this.started = started;
+        }
+    }
+
+    //one file on its way through the stages
+    private class Job implements CompletionHandler<Integer, Chunk> {
+        private final AsynchronousFileChannel in;
+        private final KeyStream keyStream;
+        private final MessageDigest digest;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private FileChannel out;
+        //guarded by this
+        private int pending;
+        private boolean readDone;
+        private long written;
+
+        private Job(AsynchronousFileChannel in, KeyStream keyStream, MessageDigest digest) {
+            this.in = in;
+            this.keyStream = keyStream;
+            this.digest = digest;
+        }
+
+        //on the calling thread, which waits for a buffer and then for the chunk to be read. returns the position of the next one
+        private long read(final long position) throws IOException {
+            if (done.isDone()) {
+                return -1;
+            }
+            final Chunk chunk = new Chunk(this, pool.acquire(), position, metrics.start());
+            synchronized (this) {
+                pending++;
+            }
+            in.read(chunk.buffer, position, chunk, this);
+            try {
+                return chunk.next.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading at : " + position);
+            } catch (ExecutionException ex) {
+                throw new IOException(ex.getCause());
+            }
+        }
+
+        @Override
+        public void completed(final Integer read, final Chunk chunk) {
+            //until the chunk is queued or given back, a failure has to give its buffer back
+            boolean handedOff = false;
+            try {
+                final ByteBuffer buffer = chunk.buffer;
+                //keeps reading until the buffer is full or the file ends
+                if (read >= 0 && buffer.hasRemaining()) {
+                    in.read(buffer, chunk.position + buffer.position(), chunk, this);
+                    return;
+                }
+                metrics.record(Phase.READ, chunk.started);
+                buffer.flip();
+                final int length = buffer.remaining();
+                if (length > 0) {
+                    if (digest != null) {
+                        digest.update(buffer.duplicate());
+                    }
+                    toTransform.add(chunk);
+                } else {
+                    finished(chunk, 0);
+                }
+                handedOff = true;
+                if (read < 0) {
+                    readFinished();
+                    chunk.next.complete(-1L);
+                } else {
+                    chunk.next.complete(chunk.position + length);
+                }
+            } catch (RuntimeException ex) {
+                fail(ex);
+                if (!handedOff) {
+                    finished(chunk, 0);
+                }
+                chunk.next.complete(-1L);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable ex, final Chunk chunk) {
+            fail(ex);
+            finished(chunk, 0);
+            chunk.next.complete(-1L);
+        }
+
+        private synchronized void readFinished() {
+            readDone = true;
+            completeIfDone();
+        }
+
+        //buffer goes back to the pool
+        private synchronized void finished(final Chunk chunk, final long length) {
+            pool.release(chunk.buffer);
+            pending--;
+            written += length;
+            completeIfDone();
+        }
+
+        private void completeIfDone() {
+            if (readDone && pending == 0 && !done.isDone()) {
+                close();
+                done.complete(written);
+            }
+        }
+
+        private void fail(final Throwable ex) {
+            if (done.completeExceptionally(ex)) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                in.close();
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ex) {
+                done.completeExceptionally(ex);
+            }
+        }
+    }
+}
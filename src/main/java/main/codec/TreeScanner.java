@@ -0,0 +1,94 @@
+package main.codec;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+//walks a directory tree on a fork/join pool, one task per directory, reading attributes of every entry exactly once
+public class TreeScanner {
+    private final ForkJoinPool threadpool;
+
+    public TreeScanner(int threads) {
+        this.threadpool = new ForkJoinPool(threads, pool -> {
+            final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("scanner" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+    }
+
+    //hands every non-directory entry to visitor as soon as it is found, returns how many were found.
+    //symlinks are not followed and a root that is not a directory is visited itself, same as Files.walkFileTree.
+    //once visitor returns TERMINATE, no more entries are visited
+    public long scan(final Path root, final BiFunction<Path, BasicFileAttributes, FileVisitResult> visitor) {
+        final LongAdder count = new LongAdder();
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isDirectory()) {
+                count.increment();
+                visitor.apply(root, attrs);
+                return count.sum();
+            }
+            threadpool.invoke(new Task(root, visitor, count, new AtomicBoolean()));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed scanning : " + root, ex);
+        } finally {
+            threadpool.shutdown();
+        }
+        return count.sum();
+    }
+
+    private static class Task extends RecursiveAction {
+        private final Path dir;
+        private final BiFunction<Path, BasicFileAttributes, FileVisitResult> visitor;
+        private final LongAdder count;
+        //shared by every task of a scan
+        private final AtomicBoolean terminated;
+
+        private Task(Path dir, BiFunction<Path, BasicFileAttributes, FileVisitResult> visitor, LongAdder count, AtomicBoolean terminated) {
+            this.dir = dir;
+            this.visitor = visitor;
+            this.count = count;
+            this.terminated = terminated;
+        }
+
+        @Override
+        protected void compute() {
+            final List<Task> subtasks = new ArrayList<>();
+            try (final DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (final Path entry : entries) {
+                    if (terminated.get()) {
+                        break;
+                    }
+                    final BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        final Task subtask = new Task(entry, visitor, count, terminated);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else {
+                        count.increment();
+                        if (visitor.apply(entry, attrs) == FileVisitResult.TERMINATE) {
+                            terminated.set(true);
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed scanning : " + dir, ex);
+            }
+            for (final Task subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+}
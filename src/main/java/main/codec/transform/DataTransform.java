@@ -0,0 +1,16 @@
+package main.codec.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+//a reversible stage applied to file contents before they are encrypted
+public interface DataTransform {
+
+    //recorded with every file, so the stage can be reversed when decrypting
+    String getId();
+
+    OutputStream encode(OutputStream out) throws IOException;
+
+    InputStream decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,27 @@
+package main.codec.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipTransform implements DataTransform {
+    public static final String ID = "gzip";
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+}
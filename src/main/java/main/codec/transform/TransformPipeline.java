@@ -0,0 +1,78 @@
+package main.codec.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+//ordered stages applied to contents before encryption, and reversed after decryption
+public class TransformPipeline {
+    public static final TransformPipeline EMPTY = new TransformPipeline(Collections.emptyList());
+    private static final Map<String, Supplier<DataTransform>> REGISTRY = new HashMap<>();
+
+    static {
+        REGISTRY.put(DeflateTransform.ID, DeflateTransform::new);
+        REGISTRY.put(GzipTransform.ID, GzipTransform::new);
+    }
+
+    private final List<DataTransform> stages;
+
+    public TransformPipeline(List<DataTransform> stages) {
+        this.stages = stages;
+    }
+
+    //null or empty ids give the empty pipeline
+    public static TransformPipeline of(final List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return EMPTY;
+        }
+        final List<DataTransform> stages = new ArrayList<>();
+        for (final String id : ids) {
+            final Supplier<DataTransform> supplier = REGISTRY.get(id);
+            if (supplier == null) {
+                throw new IllegalArgumentException("Unknown transform : " + id);
+            }
+            stages.add(supplier.get());
+        }
+        return new TransformPipeline(stages);
+    }
+
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    //null for the empty pipeline, so files without stages do not carry an empty list
+    public List<String> getIds() {
+        if (stages.isEmpty()) {
+            return null;
+        }
+        final List<String> ids = new ArrayList<>();
+        for (final DataTransform stage : stages) {
+            ids.add(stage.getId());
+        }
+        return ids;
+    }
+
+    //first stage sees the original contents, the last one writes into sink
+    public OutputStream encode(OutputStream sink) throws IOException {
+        OutputStream out = sink;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            out = stages.get(i).encode(out);
+        }
+        return out;
+    }
+
+    //last stage is reversed first, reading from source
+    public InputStream decode(InputStream source) throws IOException {
+        InputStream in = source;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            in = stages.get(i).decode(in);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,29 @@
+package main.enums;
+
+public enum CipherType {
+    //repeating-key xor with the raw password, used by stores created before ciphers could be picked
+    XOR("xor"),
+    //aes in counter mode with a key derived from the password
+    AES_CTR("aes-ctr"),
+    //chacha20 with a key derived from the password
+    CHACHA20("chacha20");
+
+    private final String id;
+
+    CipherType(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public static CipherType fromId(final String id) {
+        for (final CipherType type : values()) {
+            if (type.id.equals(id.trim())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher : " + id);
+    }
+}
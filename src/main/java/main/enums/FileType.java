@@ -1,7 +1,7 @@
 package main.enums;
 
 public enum FileType {
-    REGULAR("mydat"), EXTERNAL_SYMLINK("extdat"), INTERNAL_SYMLINK("intdat"), NON_REGULAR("");
+    REGULAR("mydat"), EXTERNAL_SYMLINK("extdat"), INTERNAL_SYMLINK("intdat"), PACK("mypack"), NON_REGULAR("");
 
     private final String extension;
 
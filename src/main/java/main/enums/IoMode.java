@@ -0,0 +1,18 @@
+package main.enums;
+
+public enum IoMode {
+    //whole file in a heap array
+    HEAP,
+    //fixed-size chunks through a reusable buffer
+    STREAMING,
+    //memory mapped regions of source and target
+    MMAP,
+    //chunks go through separate read, encrypt and write stages shared by all workers
+    PIPELINE,
+    //picks streaming or mmap depending on file size
+    AUTO;
+
+    public static IoMode fromName(final String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
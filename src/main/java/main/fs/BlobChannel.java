@@ -0,0 +1,101 @@
+package main.fs;
+
+import main.Utils.KeyStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import static main.Utils.EncryptionUtils.decrypt;
+
+//read-only view of the plain contents of a blob, or of a range of a pack.
+//the key stream only depends on the byte position, so every read decrypts just the bytes it returns
+class BlobChannel implements SeekableByteChannel {
+    private final FileChannel channel;
+    private final KeyStream keyStream;
+    //where the contents start in the blob, which is also the key position of their first byte
+    private final long start;
+    private final long size;
+    private long position;
+
+    BlobChannel(FileChannel channel, KeyStream keyStream, long start, long size) {
+        this.channel = channel;
+        this.keyStream = keyStream;
+        this.start = start;
+        this.size = size;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        final int offset = dst.position();
+        final int limit = dst.limit();
+        dst.limit(offset + (int) Math.min(dst.remaining(), size - position));
+        final int read;
+        try {
+            read = channel.read(dst, start + position);
+        } finally {
+            dst.limit(limit);
+        }
+        if (read <= 0) {
+            return read;
+        }
+        decrypt(dst, offset, read, keyStream, start + position);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(final long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position : " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package main.fs;
+
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//number of index entries pointing at every blob, blobs nothing points at anymore are queued as garbage
+class BlobReferences {
+    private final ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+    private final Queue<String> garbage = new ConcurrentLinkedQueue<>();
+    //entries of every pack still pointed at, by their path relative to the root, so a pack is rewritten without walking the tree.
+    //packs that lost some of them since the last repack
+    private final ConcurrentHashMap<String, Map<Path, FileInfo>> packs = new ConcurrentHashMap<>();
+    private final Set<String> shrunk = ConcurrentHashMap.newKeySet();
+
+    //counted inside compute, so a remove dropping the last reference at the same time can not leave it counted on a dropped entry.
+    //path is the one of the entry relative to the root
+    void add(final Path path, final FileInfo fileInfo) {
+        final String blob = fileInfo.getEncryptedFilePath();
+        counts.compute(blob, (key, count) -> {
+            if (fileInfo.isPacked()) {
+                packs.computeIfAbsent(key, unused -> new ConcurrentHashMap<>()).put(path, fileInfo);
+            }
+            if (count == null) {
+                return new AtomicInteger(1);
+            }
+            count.incrementAndGet();
+            return count;
+        });
+    }
+
+    void remove(final Path path, final FileInfo fileInfo) {
+        final String blob = fileInfo.getEncryptedFilePath();
+        counts.computeIfPresent(blob, (unused, count) -> {
+            if (fileInfo.isPacked()) {
+                //a directory read again from the index holds other objects, so the entry is matched by its place in the pack
+                packs.get(blob).computeIfPresent(path, (key, current) -> current.getPackOffset().equals(fileInfo.getPackOffset()) ? null : current);
+            }
+            if (count.decrementAndGet() > 0) {
+                if (fileInfo.isPacked()) {
+                    shrunk.add(blob);
+                }
+                return count;
+            }
+            packs.remove(blob);
+            garbage.add(blob);
+            return null;
+        });
+    }
+
+    //dir and everything below it, path is the one of dir relative to the root.
+    //subdirs are copied first, a lazily loaded dir may drop the ones not loaded yet while they are walked
+    void addTree(final Path path, final Directory dir) {
+        dir.getAllFiles().forEach(file -> add(path.resolve(file.getName()), file));
+        for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+            addTree(path.resolve(subdir.getName()), subdir);
+        }
+    }
+
+    void removeTree(final Path path, final Directory dir) {
+        dir.getAllFiles().forEach(file -> remove(path.resolve(file.getName()), file));
+        for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+            removeTree(path.resolve(subdir.getName()), subdir);
+        }
+    }
+
+    boolean isReferenced(final String blob) {
+        return counts.containsKey(blob);
+    }
+
+    //blobs that lost their last reference and were not cleaned yet
+    List<String> getPendingGarbage() {
+        return new ArrayList<>(garbage);
+    }
+
+    //counts built from the index as it was before the journal was replayed over it
+    void apply(final Changes changes) {
+        for (final Changes.Change change : changes.changes) {
+            if (change.added) {
+                add(change.path, change.fileInfo);
+            } else {
+                remove(change.path, change.fileInfo);
+            }
+        }
+        changes.garbage.forEach(this::queueIfUnreferenced);
+    }
+
+    //counts built from the tree with the journal already replayed, only the blobs it dropped are left to queue
+    void queueDropped(final Changes changes) {
+        for (final Changes.Change change : changes.changes) {
+            if (!change.added) {
+                queueIfUnreferenced(change.fileInfo.getEncryptedFilePath());
+            }
+        }
+        changes.garbage.forEach(this::queueIfUnreferenced);
+    }
+
+    private void queueIfUnreferenced(final String blob) {
+        if (!isReferenced(blob)) {
+            garbage.add(blob);
+        }
+    }
+
+    //next blob that lost its last reference, null when there is none
+    String pollGarbage() {
+        return garbage.poll();
+    }
+
+    //entries still in the pack, by path
+    Map<Path, FileInfo> getPackEntries(final String pack) {
+        final Map<Path, FileInfo> entries = packs.get(pack);
+        return entries == null ? new LinkedHashMap<>() : new LinkedHashMap<>(entries);
+    }
+
+    long getLiveBytes(final String pack) {
+        final Map<Path, FileInfo> entries = packs.get(pack);
+        return entries == null ? 0 : entries.values().stream().mapToLong(FileInfo::getPackLength).sum();
+    }
+
+    //packs that lost entries since the last call and are still referenced
+    Set<String> takeShrunk() {
+        final Set<String> taken = new HashSet<>();
+        for (final String pack : shrunk) {
+            shrunk.remove(pack);
+            if (isReferenced(pack)) {
+                taken.add(pack);
+            }
+        }
+        return taken;
+    }
+
+    //entries added and removed while the journal is replayed, in order, and blobs it still holds as garbage.
+    //they are counted once the counts are first needed
+    static class Changes {
+        private final List<Change> changes = new ArrayList<>();
+        private final List<String> garbage = new ArrayList<>();
+
+        void add(final Path path, final FileInfo fileInfo) {
+            changes.add(new Change(true, path, fileInfo));
+        }
+
+        void remove(final Path path, final FileInfo fileInfo) {
+            changes.add(new Change(false, path, fileInfo));
+        }
+
+        void removeTree(final Path path, final Directory dir) {
+            dir.getAllFiles().forEach(file -> remove(path.resolve(file.getName()), file));
+            for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+                removeTree(path.resolve(subdir.getName()), subdir);
+            }
+        }
+
+        void garbage(final String blob) {
+            garbage.add(blob);
+        }
+
+        boolean hasDropped() {
+            return !garbage.isEmpty() || changes.stream().anyMatch(change -> !change.added);
+        }
+
+        private static class Change {
+            private final boolean added;
+            private final Path path;
+            private final FileInfo fileInfo;
+
+            private Change(boolean added, Path path, FileInfo fileInfo) {
+                this.added = added;
+                this.path = path;
+                this.fileInfo = fileInfo;
+            }
+        }
+    }
+}
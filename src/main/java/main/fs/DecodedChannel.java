@@ -0,0 +1,149 @@
+package main.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+//read-only view of a transformed file. transformed contents can only be decoded from the start,
+//so seeking forward skips decoded bytes and seeking back decodes again from the start
+class DecodedChannel implements SeekableByteChannel {
+    private final Source source;
+    //size of the decoded contents, null until known
+    private Long size;
+    private InputStream in;
+    //position of in, and the position the next read is asked for
+    private long streamPosition;
+    private long position;
+    private boolean open = true;
+
+    DecodedChannel(Source source, Long size) {
+        this.source = source;
+        this.size = size;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!seek()) {
+            return -1;
+        }
+        final int read;
+        if (dst.hasArray()) {
+            read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+        } else {
+            final byte[] chunk = new byte[Math.min(dst.remaining(), 64 << 10)];
+            read = in.read(chunk);
+            if (read > 0) {
+                dst.put(chunk, 0, read);
+            }
+        }
+        if (read < 0) {
+            size = streamPosition;
+            return -1;
+        }
+        streamPosition += read;
+        position = streamPosition;
+        return read;
+    }
+
+    //moves the stream to position, false if that is past the end
+    private boolean seek() throws IOException {
+        if (in == null || position < streamPosition) {
+            closeStream();
+            in = source.open();
+            streamPosition = 0;
+        }
+        while (streamPosition < position) {
+            final long skipped = in.skip(position - streamPosition);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    size = streamPosition;
+                    return false;
+                }
+                streamPosition++;
+            } else {
+                streamPosition += skipped;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(final long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position : " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    //entries written before sizes were recorded are decoded once to count them
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        if (size == null) {
+            long count = 0;
+            try (final InputStream counting = source.open()) {
+                final byte[] chunk = new byte[64 << 10];
+                int read;
+                while ((read = counting.read(chunk)) >= 0) {
+                    count += read;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        closeStream();
+    }
+
+    private void closeStream() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    //decoded contents from their first byte
+    interface Source {
+        InputStream open() throws IOException;
+    }
+}
@@ -1,55 +1,99 @@
 package main.fs;
 
 import com.google.gson.Gson;
+import main.Utils.DecryptingInputStream;
 import main.Utils.EncryptionUtils;
+import main.Utils.KeyStream;
+import main.codec.transform.TransformPipeline;
 import main.fs.beans.CommitResult;
 import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemLoopException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.nio.file.StandardOpenOption.*;
 import static main.Utils.EncryptionUtils.decrypt;
-import static main.Utils.EncryptionUtils.encrypt;
 
 public class FileSystem {
     public static final Path DELETED_DIR = Paths.get(".deleted");
     private static final Gson GSON = new Gson();
     private final Path rootPath;
-    private final byte[] key;
+    private static final long JOURNAL_COMPACTION_THRESHOLD = 8L << 20;
+    //symlinks followed in a row before giving up on a loop
+    private static final int MAX_SYMLINKS = 40;
+    private final KeyStream keyStream;
+    private final Journal journal;
+    //set while the journal is replayed, so replayed changes are not journaled again
+    private boolean replaying;
+    private final int lazyCacheSize;
+    //null unless the index is read on demand
+    private LazyIndex lazyIndex;
+    //null until first needed, see references()
+    private volatile BlobReferences references;
+    //what the journal changed on top of the index when it was last loaded, counted when references are built
+    private BlobReferences.Changes replayed = new BlobReferences.Changes();
+    //read with the index when it was saved along with it, built on first use otherwise, see names()
+    private volatile NameIndex names;
     //root of my file system
     private Directory root;
 
     public FileSystem(final Path rootPath, final byte[] key) {
-        this.rootPath = rootPath;
-        this.key = key;
-        this.root = buildFileSystem(rootPath);
-        System.out.println("Found : " + root.getTotal() + " files in filesystem");
+        this(rootPath, key, 0);
     }
 
-    // find directory in my file system
-    public Directory findDir(Path path) {
-        final Stack<String> stack = new Stack<>();
-        while (path != null) {
-            stack.push(path.getFileName().toString());
-            path = path.getParent();
+    //with lazyCacheSize > 0, directories are read from the index only when first reached, keeping at most that many in memory
+    public FileSystem(final Path rootPath, final byte[] key, final int lazyCacheSize) {
+        this.rootPath = rootPath;
+        try {
+            this.keyStream = StoreConfig.open(rootPath, key);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error reading store cipher", ex);
+        }
+        this.journal = new Journal(rootPath, keyStream);
+        this.lazyCacheSize = lazyCacheSize;
+        load();
+        if (lazyIndex == null) {
+            System.out.println("Found : " + root.getTotal() + " files in filesystem");
+        } else {
+            System.out.println("Opened filesystem index lazily");
         }
+    }
 
+    // find directory in my file system
+    public Directory findDir(final Path path) {
         Directory current = root;
-        while (!stack.isEmpty()) {
-            final String dirName = stack.pop();
-            final Directory next = current.getDir(dirName);
-            if (next == null) {
+        //empty path is the root itself
+        if (path == null || path.toString().isEmpty()) {
+            return current;
+        }
+        for (final Path element : path) {
+            current = current.getDir(element.toString());
+            if (current == null) {
                 return null;
             }
-            current = next;
         }
         return current;
     }
@@ -59,9 +103,103 @@ public class FileSystem {
         target is encrypted file path relative to target directory in OS filesystem
      */
     public boolean addOrUpdateFile(Path original, final Path target) {
+        return addOrUpdateFile(original, target, null, null, null);
+    }
+
+    //size, modifiedTime and hash describe the original file and let later adds skip it when unchanged
+    public boolean addOrUpdateFile(Path original, final Path target, final Long size, final Long modifiedTime, final String hash) {
+        return addOrUpdateFile(original, new FileInfo(original.getFileName().toString(), target, null, null, size, modifiedTime, hash));
+    }
+
+    //fileInfo must be named after the last element of original
+    public boolean addOrUpdateFile(Path original, final FileInfo fileInfo) {
         //create directories in my file system
-        final Directory parent = createDirIfAbsent(original.getParent());
-        return parent.createOrUpdateFile(original, target);
+        final BlobReferences references = references();
+        final Directory parent = getOrCreateDir(original.getParent());
+        final FileInfo previous = parent.putFile(fileInfo);
+        final NameIndex names = this.names;
+        if (names != null && previous == null) {
+            names.add(original, false);
+        }
+        if (references != null) {
+            //removed first, so an entry touched in place keeps its place in the pack. a blob shared by both entries
+            //may be queued as garbage on the way, clean checks it is still unreferenced
+            if (previous != null) {
+                references.remove(original, previous);
+            }
+            references.add(original, fileInfo);
+        } else if (replaying) {
+            if (previous != null) {
+                replayed.remove(original, previous);
+            }
+            replayed.add(original, fileInfo);
+        }
+        if (!replaying) {
+            journal.addFile(original.getParent(), fileInfo);
+        }
+        return previous == null;
+    }
+
+    //original is file path relative to source directory in OS filesystem
+    public FileInfo getFile(final Path original) {
+        final Directory parent = findDir(original.getParent());
+        return parent == null ? null : parent.getFile(original.getFileName().toString());
+    }
+
+    //plain contents of the file at path, relative to the root as in getFile, decrypted only as far as they are read.
+    //internal symlinks are followed
+    public SeekableByteChannel openChannel(final Path path) throws IOException {
+        return openChannel(resolveFile(path));
+    }
+
+    //file must be a regular file entry, e.g. from resolveFile
+    public SeekableByteChannel openChannel(final FileInfo file) throws IOException {
+        final Path rootPath = root.getPath();
+        final Path blob = rootPath.resolve(file.getEncryptedFilePath());
+        final TransformPipeline pipeline = TransformPipeline.of(file.getTransforms());
+        if (pipeline.isEmpty()) {
+            final FileChannel channel = FileChannel.open(blob, READ);
+            final KeyStream blobStream = keyStream.forBlob(blob.getFileName().toString());
+            return file.isPacked() ? new BlobChannel(channel, blobStream, file.getPackOffset(), file.getPackLength())
+                                   : new BlobChannel(channel, blobStream, 0, channel.size());
+        }
+        if (file.isPacked()) {
+            final PackReader reader = new PackReader(keyStream);
+            return new DecodedChannel(() -> pipeline.decode(new ByteArrayInputStream(reader.read(rootPath, file))), file.getSize());
+        }
+        return new DecodedChannel(() -> pipeline.decode(new DecryptingInputStream(new BufferedInputStream(Files.newInputStream(blob)),
+                                                                         keyStream.forBlob(blob.getFileName().toString()))), file.getSize());
+    }
+
+    //up to length bytes of the file at path starting at offset, fewer at the end of the file
+    public byte[] read(final Path path, final long offset, final int length) throws IOException {
+        try (final SeekableByteChannel channel = openChannel(path)) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - offset)));
+            channel.position(offset);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //until full or the end of the file
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    //entry of the regular file at path, following internal symlinks
+    public FileInfo resolveFile(Path path) throws IOException {
+        for (int links = 0; links <= MAX_SYMLINKS; links++) {
+            final FileInfo file = getFile(path);
+            if (file == null) {
+                throw new NoSuchFileException(path.toString());
+            }
+            if (file.isRegularFile()) {
+                return file;
+            }
+            if (!file.isInternalSymlinkFile()) {
+                throw new IOException("Symlink : " + path + " points outside the filesystem, to : " + file.getSymlinkTarget());
+            }
+            //internal symlink targets are relative to the root, same as path
+            path = Paths.get(file.getSymlinkTarget());
+        }
+        throw new FileSystemLoopException(path.toString());
     }
 
     /*
@@ -69,101 +207,389 @@ public class FileSystem {
         target is encrypted file path relative to target directory in OS filesystem
      */
     public boolean addOrUpdateSymlinkFile(Path original, final Path target, final Path symlinkTarget, final boolean isInternalSymlink) {
-        //create directories in my file system
-        final Directory parent = createDirIfAbsent(original.getParent());
-        return parent.createOrUpdateSymlinkFile(original, target, symlinkTarget, isInternalSymlink);
+        return addOrUpdateFile(original, new FileInfo(original.getFileName().toString(), target, symlinkTarget.toString(), isInternalSymlink));
     }
 
     public Directory createDirIfAbsent(Path path) {
-        final Stack<String> stack = new Stack<>();
-        while (path != null) {
-            try {
-                stack.push(path.getFileName().toString());
-            } catch (Exception ex) {
-                System.out.println("path : " + path);
-                System.out.println("file : " + path.getFileName());
-                throw new RuntimeException(ex);
-            }
-            path = path.getParent();
+        final Directory dir = getOrCreateDir(path);
+        if (!replaying && path != null) {
+            journal.mkdir(path);
         }
+        return dir;
+    }
 
+    private Directory getOrCreateDir(final Path path) {
         Directory parentDirectory = root;
-        while (!stack.isEmpty()) {
-            final String dirName = stack.pop();
-            parentDirectory = parentDirectory.createDirIfAbsent(dirName);
+        if (path == null || path.toString().isEmpty()) {
+            return parentDirectory;
+        }
+        final NameIndex names = this.names;
+        for (int i = 0; i < path.getNameCount(); i++) {
+            final String dirName = path.getName(i).toString();
+            Directory next = parentDirectory.getDir(dirName);
+            if (next == null) {
+                next = parentDirectory.createDirIfAbsent(dirName);
+                if (names != null) {
+                    names.add(path.subpath(0, i + 1), true);
+                }
+            }
+            parentDirectory = next;
         }
         return parentDirectory;
     }
 
     //persist new dir structure in file
     public CommitResult commit() {
-        flush();
-        final int removed = clean();
+        return commit(false);
+    }
+
+    //compact writes the whole index even when the changes would fit in the journal, e.g. after a bulk add
+    public CommitResult commit(final boolean compact) {
+        save(compact);
+        int removed = clean();
+        //moved entries are saved before their old packs are cleaned
+        if (repack() > 0) {
+            save(false);
+            removed += clean();
+        }
         return new CommitResult(removed, 0);
     }
 
     public boolean removeDir(final Path path) {
+        final BlobReferences references = references();
         final Directory parent = findDir(path.getParent());
-        return parent.removeDir(path.getFileName().toString());
+        final Directory removed = parent == null ? null : parent.takeDir(path.getFileName().toString());
+        if (removed == null) {
+            return false;
+        }
+        if (references != null) {
+            references.removeTree(path, removed);
+        } else if (replaying) {
+            replayed.removeTree(path, removed);
+        }
+        final NameIndex names = this.names;
+        if (names != null) {
+            names.remove(path, true);
+            names.removeTree(path, removed);
+        }
+        if (!replaying) {
+            journal.removeDir(path);
+        }
+        return true;
     }
 
     public boolean removeFile(final Path path) {
+        final BlobReferences references = references();
         final Directory parent = findDir(path.getParent());
-
-        if (parent == null) {
+        final FileInfo removed = parent == null ? null : parent.takeFile(path.getFileName().toString());
+        if (removed == null) {
             return false;
         }
-        return parent.removeFile(path.getFileName().toString());
+        if (references != null) {
+            references.remove(path, removed);
+        } else if (replaying) {
+            replayed.remove(path, removed);
+        }
+        final NameIndex names = this.names;
+        if (names != null) {
+            names.remove(path, false);
+        }
+        if (!replaying) {
+            journal.removeFile(path);
+        }
+        return true;
     }
 
     public void reload() {
+        load();
+    }
+
+    private void load() {
+        closeLazyIndex();
+        references = null;
+        replayed = new BlobReferences.Changes();
         root = buildFileSystem(rootPath);
+        names = readNames();
+        replaying = true;
+        try {
+            final int records = journal.replay(new Journal.Replay() {
+                @Override
+                public void addFile(Path parent, FileInfo fileInfo) {
+                    addOrUpdateFile(parent == null ? Paths.get(fileInfo.getName()) : parent.resolve(fileInfo.getName()), fileInfo);
+                }
+
+                @Override
+                public void removeFile(Path path) {
+                    FileSystem.this.removeFile(path);
+                }
+
+                @Override
+                public void mkdir(Path path) {
+                    createDirIfAbsent(path);
+                }
+
+                @Override
+                public void removeDir(Path path) {
+                    FileSystem.this.removeDir(path);
+                }
+
+                @Override
+                public void garbage(String blob) {
+                    replayed.garbage(blob);
+                }
+            });
+            if (records > 0) {
+                System.out.println("Replayed : " + records + " journal records");
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error replaying filesystem journal", ex);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    //appends changes to the journal, or rewrites the whole index once the journal has grown past the threshold.
+    //a lazy index is also rewritten once more directories are pinned by journaled changes than it may keep loaded,
+    //reading it again unpins them
+    private void save(final boolean compact) {
+        try {
+            if (compact || journal.needsCompaction(JOURNAL_COMPACTION_THRESHOLD) || (lazyIndex != null && lazyIndex.getPinned() > lazyCacheSize)) {
+                flush();
+                journal.reset();
+                final BlobReferences current = references;
+                if (current != null) {
+                    //the records that dropped them went with the old journal, blobs not cleaned yet are journaled again
+                    current.getPendingGarbage().forEach(journal::garbage);
+                    journal.append();
+                }
+                if (lazyIndex != null) {
+                    //records of the old index are gone, directories have to be read from the new one.
+                    //the counts still hold, so blobs dropped before the save are cleaned after it
+                    final BlobReferences kept = references;
+                    load();
+                    references = kept;
+                }
+            } else {
+                journal.append();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error saving filesystem changes", ex);
+        }
     }
 
+    //moves blobs that lost their last reference since the last clean to the trash folder
     public int clean() {
         try {
-            final Path rootPath = root.getPath();
-            //all the files in OS filesystem
-            final Set<Path> allFiles = Files.walk(rootPath)
-                                            .filter(path -> !path.toFile().isDirectory())
-                                            .filter(EncryptionUtils::isValid)
-                                            .map(rootPath::relativize)
-                                            .collect(Collectors.toSet());
-            //all files that exist in my file system
-            allFiles.removeAll(getReferencedFiles(root));
-            //remaining files are orphaned, not part of my filesystem
-            for (final Path path : allFiles) {
-                //move to trash folder instead
-                final Path deletedFilePath = rootPath.resolve(DELETED_DIR).resolve(path.toString() + ".del");
-                Files.createDirectories(deletedFilePath.getParent());
-                Files.move(rootPath.resolve(path), deletedFilePath);
-            }
-            return allFiles.size();
+            int removed = 0;
+            //blobs dropped before the last load are only queued once the counts are built
+            final BlobReferences references = replayed.hasDropped() ? references() : this.references;
+            String blob;
+            while (references != null && (blob = references.pollGarbage()) != null) {
+                //dedup may have pointed a new entry at it in the meantime
+                if (!references.isReferenced(blob) && moveToDeleted(Paths.get(blob))) {
+                    removed++;
+                }
+            }
+            return removed;
         } catch (Exception ex) {
             throw new RuntimeException("Error cleaning up the filesystem", ex);
         }
     }
 
+    //packs that lost more than half of their bytes since the last repack are rewritten with only their live entries,
+    //the old packs are left to clean once nothing points at them anymore. returns number of entries moved
+    private int repack() {
+        final BlobReferences references = this.references;
+        if (references == null) {
+            return 0;
+        }
+        final Path rootPath = root.getPath();
+        final Set<String> sparse = new HashSet<>();
+        try {
+            for (final String pack : references.takeShrunk()) {
+                final Path packPath = rootPath.resolve(pack);
+                if (Files.exists(packPath) && references.getLiveBytes(pack) * 2 < Files.size(packPath)) {
+                    sparse.add(pack);
+                }
+            }
+            if (sparse.isEmpty()) {
+                return 0;
+            }
+            final Map<Path, FileInfo> moving = new LinkedHashMap<>();
+            for (final String pack : sparse) {
+                moving.putAll(references.getPackEntries(pack));
+            }
+            final PackReader reader = new PackReader(keyStream);
+            try (final PackWriter writer = new PackWriter(rootPath, keyStream)) {
+                for (final Map.Entry<Path, FileInfo> entry : moving.entrySet()) {
+                    final byte[] data = reader.read(rootPath, entry.getValue());
+                    final PackWriter.Slot slot = writer.append(data, data.length);
+                    addOrUpdateFile(entry.getKey(), entry.getValue().withLocation(slot.getPack(), slot.getOffset(), slot.getLength()));
+                }
+            }
+            System.out.println("Repacked : " + moving.size() + " files out of " + sparse.size() + " packs");
+            return moving.size();
+        } catch (IOException ex) {
+            throw new RuntimeException("Error repacking the filesystem", ex);
+        }
+    }
+
+    //scans every shard directory of the store in parallel for blobs no entry points at, e.g. left behind by a crash
+    public int cleanAll() {
+        final BlobReferences references = buildReferences();
+        final Path rootPath = root.getPath();
+        try (final Stream<Path> shards = Files.list(rootPath)) {
+            return shards.filter(Files::isDirectory)
+                         .filter(shard -> !shard.getFileName().equals(DELETED_DIR))
+                         .collect(Collectors.toList())
+                         .parallelStream()
+                         .mapToInt(shard -> cleanShard(rootPath, shard, references))
+                         .sum();
+        } catch (IOException ex) {
+            throw new RuntimeException("Error cleaning up the filesystem", ex);
+        }
+    }
+
+    private int cleanShard(final Path rootPath, final Path shard, final BlobReferences references) {
+        try (final Stream<Path> blobs = Files.walk(shard)) {
+            int removed = 0;
+            for (final Path blob : (Iterable<Path>) blobs.filter(Files::isRegularFile).filter(EncryptionUtils::isValid)::iterator) {
+                final Path relative = rootPath.relativize(blob);
+                if (!references.isReferenced(relative.toString()) && moveToDeleted(relative)) {
+                    removed++;
+                }
+            }
+            return removed;
+        } catch (IOException ex) {
+            throw new RuntimeException("Error cleaning up : " + shard, ex);
+        }
+    }
+
+    //move to trash folder instead of deleting, false if the blob is not there
+    private boolean moveToDeleted(final Path blob) throws IOException {
+        //entries written by older versions may hold absolute paths, those never pointed inside the store
+        if (blob.isAbsolute()) {
+            return false;
+        }
+        final Path rootPath = root.getPath();
+        final Path deletedFilePath = rootPath.resolve(DELETED_DIR).resolve(blob.toString() + ".del");
+        Files.createDirectories(deletedFilePath.getParent());
+        try {
+            Files.move(rootPath.resolve(blob), deletedFilePath, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    //counts are built from the whole index once something first changes, and kept up to date from then on.
+    //null while the journal is replayed, its changes are counted when they are built
+    private BlobReferences references() {
+        if (replaying) {
+            return null;
+        }
+        BlobReferences current = references;
+        if (current == null) {
+            synchronized (this) {
+                current = references;
+                if (current == null) {
+                    current = buildReferences();
+                    references = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private BlobReferences buildReferences() {
+        if (references != null) {
+            return references;
+        }
+        final BlobReferences built = new BlobReferences();
+        if (lazyIndex == null) {
+            built.addTree(Paths.get(""), root);
+            built.queueDropped(replayed);
+            return built;
+        }
+        //read from the records of the index instead of the tree, which would load every directory
+        try (final InputStream in = Files.newInputStream(rootPath.resolve(".fs"))) {
+            new IndexReader(keyStream).readEntries(in, built::add);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error counting blob references", ex);
+        }
+        built.apply(replayed);
+        return built;
+    }
+
     public Directory getRoot() {
         return root;
     }
 
-    private static Set<Path> getReferencedFiles(final Directory dir) {
-        final Set<Path> referencedFiles = dir.getAllFiles().stream().map(f -> Paths.get(f.getEncryptedFilePath()))
-                                                                    .collect(Collectors.toSet());
-        dir.getAllSubDirs().forEach(d -> referencedFiles.addAll(getReferencedFiles(d)));
-        return referencedFiles;
+    //key stream of the store, blobs are read and written with the one derived for their name
+    public KeyStream getKeyStream() {
+        return keyStream;
     }
 
     private void flush() {
+        writeIndex(root);
         try {
-            final byte[] data = GSON.toJson(root).getBytes(StandardCharsets.UTF_8);
-            encrypt(data, key);
+            names().write(root.getPath(), keyStream);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error flushing filesystem name index", ex);
+        }
+    }
+
+    //sorted paths, relative to the root, of files and directories matching glob. directory paths end with a slash
+    public List<String> find(final String glob) {
+        return names().find(glob);
+    }
+
+    private NameIndex names() {
+        NameIndex current = names;
+        if (current == null) {
+            synchronized (this) {
+                current = names;
+                if (current == null) {
+                    current = new NameIndex();
+                    current.addTree(Paths.get(""), root);
+                    names = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    //a name index that does not belong to the current index is built again when needed.
+    //a lazy one is built right away from the index records, walking the tree later would load all of it
+    private NameIndex readNames() {
+        NameIndex read = null;
+        try {
+            read = NameIndex.read(rootPath, keyStream);
+        } catch (IOException ex) {
+            System.out.println("Ignoring unreadable name index : " + ex);
+        }
+        if (read != null || lazyIndex == null) {
+            return read;
+        }
+        try {
+            final NameIndex built = NameIndex.build(rootPath, keyStream);
+            built.write(rootPath, keyStream);
+            return built;
+        } catch (IOException ex) {
+            throw new RuntimeException("Error building filesystem name index", ex);
+        }
+    }
 
-            final FileOutputStream fos = new FileOutputStream(root.getPath().resolve(".fs").toFile());
-            fos.write(data);
-            fos.flush();
-            fos.close();
+    //written aside and moved over the old index, so a failed flush never leaves a truncated index behind
+    private void writeIndex(final Directory dir) {
+        try {
+            final Path index = dir.getPath().resolve(".fs");
+            final Path temp = dir.getPath().resolve(".fs.tmp");
+            try (final FileChannel channel = FileChannel.open(temp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+                new IndexWriter(keyStream).write(dir, Channels.newOutputStream(channel));
+                channel.force(false);
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception ex) {
             throw new RuntimeException("Error flushing filesystem index", ex);
         }
@@ -171,12 +597,23 @@ public class FileSystem {
 
     private Directory buildFileSystem(final Path path) {
         try {
-            final byte[] data = Files.readAllBytes(path.resolve(".fs"));
-            decrypt(data, key);
-            Directory rootDir = GSON.fromJson(new InputStreamReader(new ByteArrayInputStream(data)), Directory.class);
-            rootDir = rootDir == null ? new Directory(path.getFileName().toString(), path) : rootDir;
-            rootDir.setPath(path);
-            populateDirPaths(rootDir);
+            final Path index = path.resolve(".fs");
+            if (Files.size(index) == 0) {
+                return new Directory(path.getFileName().toString(), path);
+            }
+            if (isBinaryIndex(index)) {
+                if (lazyCacheSize > 0) {
+                    lazyIndex = LazyIndex.open(index, keyStream, lazyCacheSize);
+                    return lazyIndex.root(path);
+                }
+                try (final InputStream in = Files.newInputStream(index)) {
+                    return new IndexReader(keyStream).read(in, path);
+                }
+            }
+            //index written by older versions as json, migrated to the binary format right away
+            final Directory rootDir = buildFromJson(path);
+            writeIndex(rootDir);
+            System.out.println("Migrated filesystem index to binary format");
             return rootDir;
         } catch (Exception ex) {
             System.out.println("Encountered error while rebuilding filesystem : " + ex);
@@ -184,6 +621,44 @@ public class FileSystem {
         }
     }
 
+    private void closeLazyIndex() {
+        if (lazyIndex == null) {
+            return;
+        }
+        try {
+            lazyIndex.close();
+        } catch (IOException ex) {
+            System.out.println("Error closing filesystem index : " + ex);
+        }
+        lazyIndex = null;
+    }
+
+    private boolean isBinaryIndex(final Path index) throws IOException {
+        final byte[] header = new byte[Integer.BYTES];
+        try (final InputStream in = Files.newInputStream(index)) {
+            if (Files.size(index) < keyStream.headerSize() + header.length) {
+                return false;
+            }
+            final KeyStream indexStream = keyStream.readHeader(in);
+            if (in.readNBytes(header, 0, header.length) < header.length) {
+                return false;
+            }
+            decrypt(header, 0, header.length, indexStream, 0);
+        }
+        return ByteBuffer.wrap(header).getInt() == IndexFormat.MAGIC;
+    }
+
+    //json indexes predate ciphers, so they are always xor-ed without a header
+    private Directory buildFromJson(final Path path) throws IOException {
+        final byte[] data = Files.readAllBytes(path.resolve(".fs"));
+        decrypt(data, 0, data.length, keyStream, 0);
+        Directory rootDir = GSON.fromJson(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Directory.class);
+        rootDir = rootDir == null ? new Directory(path.getFileName().toString(), path) : rootDir;
+        rootDir.setPath(path);
+        populateDirPaths(rootDir);
+        return rootDir;
+    }
+
     private static void populateDirPaths(final Directory dir) {
         final Path path = dir.getPath();
 
@@ -0,0 +1,89 @@
+package main.fs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+    binary layout of the .fs index, behind the cleartext key stream header, if the cipher has one.
+    all of it encrypted at its byte position counted from the end of that header :
+        header  : magic, version
+        records : one per directory in breadth first order, root first
+                  files   : count, then per file its name, flags and present fields
+                  subdirs : count, then per subdir its name and record number
+        table   : offset of every record as a fixed 8 byte value, so record n can be found without reading the others
+        trailer : table offset, record count, magic
+    names within a record are sorted and stored as length shared with the previous name plus the remaining suffix
+ */
+final class IndexFormat {
+    static final int MAGIC = 0x45465349;
+    //2 added packed files, version 1 indexes are read as they are
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 16;
+
+    static final int SYMLINK = 1;
+    static final int INTERNAL_SYMLINK = 1 << 1;
+    static final int SIZE = 1 << 2;
+    static final int MODIFIED_TIME = 1 << 3;
+    static final int HASH = 1 << 4;
+    static final int TRANSFORMS = 1 << 5;
+    static final int PACKED = 1 << 6;
+
+    private IndexFormat() {
+    }
+
+    static void writeVarLong(final DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //writes value relative to previous, returns value to be passed as previous for the next one
+    static String writeShared(final DataOutput out, final String previous, final String value) throws IOException {
+        int shared = 0;
+        final int max = Math.min(previous.length(), value.length());
+        while (shared < max && previous.charAt(shared) == value.charAt(shared)) {
+            shared++;
+        }
+        //never split a surrogate pair
+        if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+            shared--;
+        }
+        writeVarLong(out, shared);
+        writeString(out, value.substring(shared));
+        return value;
+    }
+
+    static String readShared(final DataInput in, final String previous) throws IOException {
+        final int shared = (int) readVarLong(in);
+        return previous.substring(0, shared) + readString(in);
+    }
+}
@@ -0,0 +1,147 @@
+package main.fs;
+
+import main.Utils.DecryptingInputStream;
+import main.Utils.KeyStream;
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static main.fs.IndexFormat.*;
+
+//reads the index as a stream through the cipher
+class IndexReader {
+    private static final int BUFFER_SIZE = 256 << 10;
+
+    private final KeyStream keyStream;
+
+    IndexReader(KeyStream keyStream) {
+        this.keyStream = keyStream;
+    }
+
+    Directory read(final InputStream source, final Path rootPath) throws IOException {
+        try (final DataInputStream in = open(source)) {
+            final Directory root = new Directory(rootPath.getFileName().toString(), rootPath);
+            //records come in breadth first order, so the next record always belongs to the oldest pending directory
+            final Deque<Directory> pending = new ArrayDeque<>();
+            pending.add(root);
+            while (!pending.isEmpty()) {
+                readRecord(in, pending.poll(), pending);
+            }
+            return root;
+        }
+    }
+
+    //every file of the index with its path relative to the root, without keeping any directory in memory
+    void readEntries(final InputStream source, final BiConsumer<Path, FileInfo> consumer) throws IOException {
+        readEntries(source, consumer, path -> {
+        });
+    }
+
+    //dirs gets the path of every directory below the root
+    void readEntries(final InputStream source, final BiConsumer<Path, FileInfo> consumer, final Consumer<Path> dirs) throws IOException {
+        try (final DataInputStream in = open(source)) {
+            final Deque<Path> pending = new ArrayDeque<>();
+            pending.add(Paths.get(""));
+            while (!pending.isEmpty()) {
+                final Path path = pending.poll();
+                readFiles(in, file -> consumer.accept(path.resolve(file.getName()), file));
+                final long subdirs = readVarLong(in);
+                String previous = "";
+                for (long i = 0; i < subdirs; i++) {
+                    previous = readShared(in, previous);
+                    readVarLong(in);
+                    final Path subdir = path.resolve(previous);
+                    dirs.accept(subdir);
+                    pending.add(subdir);
+                }
+            }
+        }
+    }
+
+    private DataInputStream open(final InputStream source) throws IOException {
+        final InputStream buffered = new BufferedInputStream(source, BUFFER_SIZE);
+        final DataInputStream in = new DataInputStream(new DecryptingInputStream(buffered, keyStream.readHeader(buffered)));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary index");
+        }
+        final int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported index version : " + version);
+        }
+        return in;
+    }
+
+    //fills dir with its files and subdirs, subdirs are added to pending with nothing in them yet
+    static void readRecord(final DataInput in, final Directory dir, final Deque<Directory> pending) throws IOException {
+        readFiles(in, dir);
+        final long subdirs = readVarLong(in);
+        String previous = "";
+        for (long i = 0; i < subdirs; i++) {
+            previous = readShared(in, previous);
+            //record number, only needed when records are read one by one
+            readVarLong(in);
+            final Directory subdir = new Directory(previous, dir.getPath().resolve(previous));
+            dir.putLoadedDir(subdir);
+            pending.add(subdir);
+        }
+    }
+
+    static void readFiles(final DataInput in, final Directory dir) throws IOException {
+        readFiles(in, dir::putLoadedFile);
+    }
+
+    static void readFiles(final DataInput in, final Consumer<FileInfo> consumer) throws IOException {
+        final long count = readVarLong(in);
+        String previousName = "";
+        String previousPath = "";
+        for (long i = 0; i < count; i++) {
+            final FileInfo file = readFile(in, previousName, previousPath);
+            previousName = file.getName();
+            previousPath = file.getEncryptedFilePath();
+            consumer.accept(file);
+        }
+    }
+
+    static FileInfo readFile(final DataInput in, final String previousName, final String previousPath) throws IOException {
+        final String name = readShared(in, previousName);
+        final int flags = in.readUnsignedByte();
+        final String encryptedFilePath = readShared(in, previousPath);
+        String symlinkTarget = null;
+        Boolean isInternalSymlink = null;
+        if ((flags & SYMLINK) != 0) {
+            symlinkTarget = readString(in);
+            isInternalSymlink = (flags & INTERNAL_SYMLINK) != 0;
+        }
+        final Long size = (flags & SIZE) != 0 ? readVarLong(in) : null;
+        final Long modifiedTime = (flags & MODIFIED_TIME) != 0 ? readVarLong(in) : null;
+        final String hash = (flags & HASH) != 0 ? readString(in) : null;
+        List<String> transforms = null;
+        if ((flags & TRANSFORMS) != 0) {
+            final int n = (int) readVarLong(in);
+            transforms = new ArrayList<>(n);
+            for (int t = 0; t < n; t++) {
+                transforms.add(readString(in));
+            }
+        }
+        Long packOffset = null;
+        Long packLength = null;
+        if ((flags & PACKED) != 0) {
+            packOffset = readVarLong(in);
+            packLength = readVarLong(in);
+        }
+        return new FileInfo(name, Paths.get(encryptedFilePath), symlinkTarget, isInternalSymlink, size, modifiedTime, hash, transforms, packOffset, packLength);
+    }
+}
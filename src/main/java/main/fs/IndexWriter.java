@@ -0,0 +1,125 @@
+package main.fs;
+
+import main.Utils.EncryptingOutputStream;
+import main.Utils.KeyStream;
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+import static main.fs.IndexFormat.*;
+
+//writes the index as a stream through the cipher, without building it in memory first
+class IndexWriter {
+    private static final int BUFFER_SIZE = 256 << 10;
+
+    private final KeyStream keyStream;
+
+    IndexWriter(KeyStream keyStream) {
+        this.keyStream = keyStream;
+    }
+
+    void write(final Directory root, final OutputStream sink) throws IOException {
+        final OutputStream buffered = new BufferedOutputStream(sink, BUFFER_SIZE);
+        //offsets in the table are counted from the end of the header
+        final EncryptingOutputStream encrypted = new EncryptingOutputStream(buffered, keyStream.writeHeader(buffered));
+        final DataOutputStream out = new DataOutputStream(encrypted);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        //record offsets, indexed by record number
+        final List<Long> offsets = new ArrayList<>();
+        final Deque<Directory> pending = new ArrayDeque<>();
+        pending.add(root);
+        int nextRecord = 1;
+        while (!pending.isEmpty()) {
+            final Directory dir = pending.poll();
+            offsets.add(encrypted.getPosition());
+            writeFiles(out, dir);
+
+            final List<Directory> subdirs = new ArrayList<>(dir.getAllSubDirs());
+            subdirs.sort(Comparator.comparing(Directory::getName));
+            writeVarLong(out, subdirs.size());
+            String previous = "";
+            for (final Directory subdir : subdirs) {
+                previous = writeShared(out, previous, subdir.getName());
+                writeVarLong(out, nextRecord++);
+                pending.add(subdir);
+            }
+        }
+
+        final long tableOffset = encrypted.getPosition();
+        for (final long offset : offsets) {
+            out.writeLong(offset);
+        }
+        out.writeLong(tableOffset);
+        out.writeInt(offsets.size());
+        out.writeInt(MAGIC);
+        //sink is left open for the caller to sync and close
+        out.flush();
+    }
+
+    private static void writeFiles(final DataOutputStream out, final Directory dir) throws IOException {
+        final List<FileInfo> files = new ArrayList<>(dir.getAllFiles());
+        files.sort(Comparator.comparing(FileInfo::getName));
+        writeVarLong(out, files.size());
+        String previousName = "";
+        String previousPath = "";
+        for (final FileInfo file : files) {
+            writeFile(out, file, previousName, previousPath);
+            previousName = file.getName();
+            previousPath = file.getEncryptedFilePath();
+        }
+    }
+
+    //name and blob path are stored relative to the ones of the previous file
+    static void writeFile(final DataOutput out, final FileInfo file, final String previousName, final String previousPath) throws IOException {
+        writeShared(out, previousName, file.getName());
+        int flags = 0;
+        if (!file.isRegularFile()) {
+            flags |= SYMLINK;
+            if (file.isInternalSymlinkFile()) {
+                flags |= INTERNAL_SYMLINK;
+            }
+        }
+        flags |= file.getSize() == null ? 0 : SIZE;
+        flags |= file.getModifiedTime() == null ? 0 : MODIFIED_TIME;
+        flags |= file.getHash() == null ? 0 : HASH;
+        flags |= file.getTransforms() == null ? 0 : TRANSFORMS;
+        flags |= file.isPacked() ? PACKED : 0;
+        out.writeByte(flags);
+        //blobs of one directory often share their shard directory
+        writeShared(out, previousPath, file.getEncryptedFilePath());
+        if (!file.isRegularFile()) {
+            writeString(out, file.getSymlinkTarget());
+        }
+        if (file.getSize() != null) {
+            writeVarLong(out, file.getSize());
+        }
+        if (file.getModifiedTime() != null) {
+            writeVarLong(out, file.getModifiedTime());
+        }
+        if (file.getHash() != null) {
+            writeString(out, file.getHash());
+        }
+        if (file.getTransforms() != null) {
+            writeVarLong(out, file.getTransforms().size());
+            for (final String transform : file.getTransforms()) {
+                writeString(out, transform);
+            }
+        }
+        if (file.isPacked()) {
+            writeVarLong(out, file.getPackOffset());
+            writeVarLong(out, file.getPackLength());
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package main.fs;
+
+import main.Utils.DecryptingInputStream;
+import main.Utils.KeyStream;
+import main.fs.beans.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.*;
+import static main.Utils.EncryptionUtils.encrypt;
+import static main.fs.IndexFormat.*;
+
+/*
+    append-only log of index mutations made since the index was last written in full.
+    every record is its length followed by an operation and the path it applies to, encrypted at its byte position.
+    a new journal starts with a key stream header of its own, positions are counted from its end.
+    replaying it over the index gives back the latest state, records are safe to replay more than once
+ */
+class Journal {
+    static final String NAME = ".fs.journal";
+    //beyond this many unsaved records, rewriting the index is cheaper than journaling them
+    private static final int MAX_PENDING = 100_000;
+
+    private static final byte ADD_FILE = 1;
+    private static final byte REMOVE_FILE = 2;
+    private static final byte MKDIR = 3;
+    private static final byte REMOVE_DIR = 4;
+    //blob left without references and not cleaned yet, journaled again when a compaction drops the records that left it
+    private static final byte GARBAGE = 5;
+
+    private final Path path;
+    private final KeyStream keyStream;
+    //encoded records not appended yet
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    private volatile boolean overflowed;
+
+    Journal(Path root, KeyStream keyStream) {
+        this.path = root.resolve(NAME);
+        this.keyStream = keyStream;
+    }
+
+    interface Replay {
+        void addFile(Path parent, FileInfo fileInfo);
+
+        void removeFile(Path path);
+
+        void mkdir(Path path);
+
+        void removeDir(Path path);
+
+        void garbage(String blob);
+    }
+
+    void addFile(final Path parent, final FileInfo fileInfo) {
+        record(ADD_FILE, parent, fileInfo);
+    }
+
+    void removeFile(final Path path) {
+        record(REMOVE_FILE, path, null);
+    }
+
+    void mkdir(final Path path) {
+        record(MKDIR, path, null);
+    }
+
+    void removeDir(final Path path) {
+        record(REMOVE_DIR, path, null);
+    }
+
+    void garbage(final String blob) {
+        record(GARBAGE, Paths.get(blob), null);
+    }
+
+    boolean hasPending() {
+        return pendingCount.get() > 0 || overflowed;
+    }
+
+    //true when the index should be written in full instead of growing the journal
+    boolean needsCompaction(final long threshold) throws IOException {
+        return overflowed || size() + pendingBytes.get() > threshold;
+    }
+
+    long size() throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    //appends pending records and syncs them to disk
+    void append() throws IOException {
+        if (pendingCount.get() == 0) {
+            return;
+        }
+        try (final FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE)) {
+            final int base = keyStream.headerSize();
+            final KeyStream journalStream = header(channel, base);
+            long position = channel.size() - base;
+            byte[] record;
+            while ((record = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                pendingBytes.addAndGet(-record.length);
+                encrypt(record, 0, record.length, journalStream, position);
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, base + position);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    //key stream of the journal in channel, a journal without a complete header is started over with a new one
+    private KeyStream header(final FileChannel channel, final int base) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(base);
+        if (channel.size() < base) {
+            channel.truncate(0);
+            header.put(keyStream.newHeader()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } else {
+            while (header.hasRemaining()) {
+                channel.read(header, header.position());
+            }
+        }
+        return keyStream.forHeader(header.array());
+    }
+
+    //called once the index holds every journaled mutation
+    void reset() throws IOException {
+        pending.clear();
+        pendingCount.set(0);
+        pendingBytes.set(0);
+        overflowed = false;
+        Files.deleteIfExists(path);
+    }
+
+    //applies every complete record, a record torn by a crash is cut off
+    int replay(final Replay replay) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int count = 0;
+        long valid = keyStream.headerSize();
+        if (Files.size(path) < valid) {
+            //torn before any record made it
+            Files.delete(path);
+            return 0;
+        }
+        try (final InputStream file = new BufferedInputStream(Files.newInputStream(path));
+             final DataInputStream in = new DataInputStream(new DecryptingInputStream(file, keyStream.readHeader(file)))) {
+            while (true) {
+                final byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException ex) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(record)), replay);
+                valid += Integer.BYTES + record.length;
+                count++;
+            }
+        }
+        if (valid < Files.size(path)) {
+            System.out.println("Discarding incomplete journal record");
+            try (final FileChannel channel = FileChannel.open(path, WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return count;
+    }
+
+    private void record(final byte op, final Path path, final FileInfo fileInfo) {
+        if (overflowed) {
+            return;
+        }
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            overflowed = true;
+            pending.clear();
+            pendingBytes.set(0);
+            return;
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeByte(op);
+            writeString(out, path == null ? "" : path.toString());
+            if (fileInfo != null) {
+                IndexWriter.writeFile(out, fileInfo, "", "");
+            }
+            final byte[] record = bytes.toByteArray();
+            ByteBuffer.wrap(record).putInt(0, record.length - Integer.BYTES);
+            pendingBytes.addAndGet(record.length);
+            pending.add(record);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error journaling filesystem change", ex);
+        }
+    }
+
+    private static void apply(final DataInputStream in, final Replay replay) throws IOException {
+        final byte op = in.readByte();
+        final String value = readString(in);
+        final Path path = value.isEmpty() ? null : Paths.get(value);
+        switch (op) {
+            case ADD_FILE:
+                replay.addFile(path, IndexReader.readFile(in, "", ""));
+                break;
+            case REMOVE_FILE:
+                replay.removeFile(path);
+                break;
+            case MKDIR:
+                replay.mkdir(path);
+                break;
+            case REMOVE_DIR:
+                replay.removeDir(path);
+                break;
+            case GARBAGE:
+                replay.garbage(value);
+                break;
+            default:
+                throw new IOException("Unknown journal record : " + op);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package main.fs;
+
+import main.Utils.EncryptionUtils;
+import main.Utils.KeyStream;
+import main.fs.beans.Directory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static main.fs.IndexFormat.*;
+
+//reads single directory records of the binary index on demand, keeping at most maxLoaded of them in memory
+class LazyIndex implements Directory.Loader, Closeable {
+    private final FileChannel channel;
+    private final KeyStream keyStream;
+    //size of the key stream header, positions within the index are counted from its end
+    private final int base;
+    private final long tableOffset;
+    private final int records;
+    //loaded directories in access order, the least recently used one is dropped first
+    private final Map<Directory, Boolean> loaded;
+    //changed directories, they are only dropped with the whole index once it is written again
+    private final AtomicInteger pinned = new AtomicInteger();
+
+    private LazyIndex(FileChannel channel, KeyStream keyStream, int base, long tableOffset, int records, int maxLoaded) {
+        this.channel = channel;
+        this.keyStream = keyStream;
+        this.base = base;
+        this.tableOffset = tableOffset;
+        this.records = records;
+        this.loaded = new LinkedHashMap<Directory, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Directory, Boolean> eldest) {
+                if (size() <= maxLoaded) {
+                    return false;
+                }
+                //changed directories are kept by unload itself
+                eldest.getKey().unload();
+                return true;
+            }
+        };
+    }
+
+    static LazyIndex open(final Path index, final KeyStream keyStream, final int maxLoaded) throws IOException {
+        final FileChannel channel = FileChannel.open(index, READ);
+        try {
+            final int base = keyStream.headerSize();
+            final ByteBuffer header = read(channel, 0, base);
+            final KeyStream indexStream = keyStream.forHeader(header.array());
+            final long size = channel.size() - base;
+            final ByteBuffer trailer = decrypt(read(channel, base + size - TRAILER_SIZE, TRAILER_SIZE), indexStream, size - TRAILER_SIZE);
+            final long tableOffset = trailer.getLong();
+            final int records = trailer.getInt();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Index trailer is corrupt");
+            }
+            return new LazyIndex(channel, indexStream, base, tableOffset, records, maxLoaded);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    Directory root(final Path rootPath) {
+        final Directory root = Directory.lazy(rootPath.getFileName().toString(), rootPath, null, this, 0);
+        root.pin();
+        return root;
+    }
+
+    @Override
+    public void load(final Directory dir) {
+        final int record = dir.getRecord();
+        try {
+            final long start = offset(record);
+            final long end = record + 1 < records ? offset(record + 1) : tableOffset;
+            final ByteBuffer data = read(start, (int) (end - start));
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.array()));
+            IndexReader.readFiles(in, dir);
+            final long subdirs = readVarLong(in);
+            String previous = "";
+            for (long i = 0; i < subdirs; i++) {
+                previous = readShared(in, previous);
+                final int subRecord = (int) readVarLong(in);
+                dir.putLoadedDir(Directory.lazy(previous, dir.getPath().resolve(previous), dir, this, subRecord));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Error loading directory : " + dir.getPath(), ex);
+        }
+    }
+
+    @Override
+    public void accessed(final Directory dir) {
+        synchronized (loaded) {
+            loaded.put(dir, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void pinned(final Directory dir) {
+        pinned.incrementAndGet();
+    }
+
+    int getPinned() {
+        return pinned.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long offset(final int record) throws IOException {
+        return read(tableOffset + (long) record * Long.BYTES, Long.BYTES).getLong();
+    }
+
+    //positional read, decrypted at the position it was read from
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        return decrypt(read(channel, base + position, length), keyStream, position);
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of index");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer decrypt(final ByteBuffer buffer, final KeyStream keyStream, final long position) {
+        EncryptionUtils.decrypt(buffer.array(), 0, buffer.limit(), keyStream, position);
+        return buffer;
+    }
+}
@@ -0,0 +1,202 @@
+package main.fs;
+
+import main.Utils.DecryptingInputStream;
+import main.Utils.EncryptingOutputStream;
+import main.Utils.KeyStream;
+import main.fs.beans.Directory;
+import main.fs.beans.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static java.nio.file.StandardOpenOption.*;
+import static main.fs.IndexFormat.*;
+
+/*
+    every file and directory name of the filesystem, sorted, with the paths carrying it, and every path sorted on its own.
+    directory paths end with a slash. kept next to the index as .fs.names, stamped with size and modified time
+    of the .fs it was written with, and ignored when those do not match anymore
+ */
+class NameIndex {
+    static final String NAME = ".fs.names";
+    private static final int BUFFER_SIZE = 256 << 10;
+
+    private final ConcurrentSkipListMap<String, Set<String>> names = new ConcurrentSkipListMap<>();
+    //same paths, so globs over paths only look at the ones below their literal start
+    private final ConcurrentSkipListSet<String> paths = new ConcurrentSkipListSet<>();
+
+    //path relative to the root
+    void add(final Path path, final boolean dir) {
+        final String entry = dir ? path + "/" : path.toString();
+        //compute may run the function more than once, adding is idempotent
+        names.compute(path.getFileName().toString(), (unused, paths) -> {
+            final Set<String> updated = paths == null ? ConcurrentHashMap.newKeySet() : paths;
+            updated.add(entry);
+            return updated;
+        });
+        paths.add(entry);
+    }
+
+    void remove(final Path path, final boolean dir) {
+        final String entry = dir ? path + "/" : path.toString();
+        names.computeIfPresent(path.getFileName().toString(), (unused, paths) -> {
+            paths.remove(entry);
+            return paths.isEmpty() ? null : paths;
+        });
+        paths.remove(entry);
+    }
+
+    //dir and everything below it, path is the one of dir relative to the root
+    void addTree(final Path path, final Directory dir) {
+        for (final FileInfo file : dir.getAllFiles()) {
+            add(path.resolve(file.getName()), false);
+        }
+        //copied first, a lazily loaded dir may drop the subdirs not loaded yet while they are walked
+        for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+            final Path subdirPath = path.resolve(subdir.getName());
+            add(subdirPath, true);
+            addTree(subdirPath, subdir);
+        }
+    }
+
+    void removeTree(final Path path, final Directory dir) {
+        for (final FileInfo file : dir.getAllFiles()) {
+            remove(path.resolve(file.getName()), false);
+        }
+        for (final Directory subdir : new ArrayList<>(dir.getAllSubDirs())) {
+            final Path subdirPath = path.resolve(subdir.getName());
+            remove(subdirPath, true);
+            removeTree(subdirPath, subdir);
+        }
+    }
+
+    /*
+        sorted paths matching glob. a glob without a slash is matched against names only, the literal start
+        of it narrows the names looked at to a range of the sorted names. one with slashes is matched against
+        whole paths relative to the root, narrowed the same way by its literal start, e.g. src/docs/ for src/docs/**
+     */
+    List<String> find(final String glob) {
+        final List<String> found = new ArrayList<>();
+        if (glob.indexOf('/') >= 0) {
+            final PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            for (final String path : range(paths, literalPrefix(glob))) {
+                if (pathMatcher.matches(Paths.get(path))) {
+                    found.add(path);
+                }
+            }
+            return found;
+        }
+        final PathMatcher nameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        for (final Map.Entry<String, Set<String>> entry : range(names, literalPrefix(glob)).entrySet()) {
+            if (nameMatcher.matches(Paths.get(entry.getKey()))) {
+                found.addAll(entry.getValue());
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    private static <V> NavigableMap<String, V> range(final NavigableMap<String, V> sorted, final String prefix) {
+        return prefix.isEmpty() ? sorted : sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static NavigableSet<String> range(final NavigableSet<String> sorted, final String prefix) {
+        return prefix.isEmpty() ? sorted : sorted.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static String literalPrefix(final String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[{\\".indexOf(glob.charAt(i)) >= 0) {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    //written aside and moved into place, like the index
+    void write(final Path rootPath, final KeyStream keyStream) throws IOException {
+        final Path index = rootPath.resolve(".fs");
+        final Path temp = rootPath.resolve(NAME + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            final OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            final DataOutputStream out = new DataOutputStream(new EncryptingOutputStream(buffered, keyStream.writeHeader(buffered)));
+            out.writeInt(MAGIC);
+            out.writeLong(Files.size(index));
+            out.writeLong(Files.getLastModifiedTime(index).toMillis());
+            writeVarLong(out, names.size());
+            String previous = "";
+            for (final Map.Entry<String, Set<String>> entry : names.entrySet()) {
+                previous = writeShared(out, previous, entry.getKey());
+                final List<String> paths = new ArrayList<>(entry.getValue());
+                writeVarLong(out, paths.size());
+                for (final String path : paths) {
+                    writeString(out, path);
+                }
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temp, rootPath.resolve(NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //read from the records of the index at rootPath, without loading its directories
+    static NameIndex build(final Path rootPath, final KeyStream keyStream) throws IOException {
+        final NameIndex nameIndex = new NameIndex();
+        try (final InputStream in = Files.newInputStream(rootPath.resolve(".fs"))) {
+            new IndexReader(keyStream).readEntries(in, (path, file) -> nameIndex.add(path, false), path -> nameIndex.add(path, true));
+        }
+        return nameIndex;
+    }
+
+    //null when there is no name index, or it was written for another .fs
+    static NameIndex read(final Path rootPath, final KeyStream keyStream) throws IOException {
+        final Path path = rootPath.resolve(NAME);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        final Path index = rootPath.resolve(".fs");
+        try (final InputStream source = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+             final DataInputStream in = new DataInputStream(new DecryptingInputStream(source, keyStream.readHeader(source)))) {
+            if (in.readInt() != MAGIC || in.readLong() != Files.size(index) || in.readLong() != Files.getLastModifiedTime(index).toMillis()) {
+                return null;
+            }
+            final NameIndex nameIndex = new NameIndex();
+            final long count = readVarLong(in);
+            String previous = "";
+            for (long i = 0; i < count; i++) {
+                previous = readShared(in, previous);
+                final long n = readVarLong(in);
+                final Set<String> paths = ConcurrentHashMap.newKeySet();
+                for (long p = 0; p < n; p++) {
+                    paths.add(readString(in));
+                }
+                nameIndex.names.put(previous, paths);
+                nameIndex.paths.addAll(paths);
+            }
+            return nameIndex;
+        }
+    }
+}
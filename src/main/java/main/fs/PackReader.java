@@ -0,0 +1,41 @@
+package main.fs;
+
+import main.Utils.KeyStream;
+import main.fs.beans.FileInfo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static main.Utils.EncryptionUtils.decrypt;
+
+//reads the stored bytes of one packed file, decrypted but still transformed
+public class PackReader {
+    private final KeyStream keyStream;
+
+    public PackReader(KeyStream keyStream) {
+        this.keyStream = keyStream;
+    }
+
+    public byte[] read(final Path rootPath, final FileInfo file) throws IOException {
+        final long offset = file.getPackOffset();
+        final byte[] data = new byte[Math.toIntExact(file.getPackLength())];
+        final Path pack = rootPath.resolve(file.getEncryptedFilePath());
+        try (final FileChannel channel = FileChannel.open(pack, READ)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Pack : " + pack + " ends before " + file.getName());
+                }
+                position += read;
+            }
+        }
+        decrypt(data, 0, data.length, keyStream.forBlob(pack.getFileName().toString()), offset);
+        return data;
+    }
+}
@@ -0,0 +1,140 @@
+package main.fs;
+
+import main.Utils.KeyStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static main.Utils.EncryptionUtils.encrypt;
+import static main.Utils.EncryptionUtils.getRandomName;
+import static main.enums.FileType.PACK;
+
+//appends small files to shared pack files, every byte encrypted at its position in the pack.
+//space is handed out under a lock, the contents are written outside of it, so workers fill a pack concurrently
+public class PackWriter implements Closeable {
+    public static final Path PACKS_DIR = Paths.get("packs");
+    //a new pack is started once the next file does not fit anymore
+    public static final long PACK_SIZE = 64L << 20;
+
+    private final Path rootPath;
+    private final KeyStream keyStream;
+    private Pack current;
+
+    public PackWriter(Path rootPath, KeyStream keyStream) {
+        this.rootPath = rootPath;
+        this.keyStream = keyStream;
+    }
+
+    //encrypts data in place and writes it to a pack, returns where it went
+    public Slot append(final byte[] data, final int length) throws IOException {
+        final Pack pack;
+        final long offset;
+        synchronized (this) {
+            if (current == null || (current.size > 0 && current.size + length > PACK_SIZE)) {
+                seal(current);
+                current = open();
+            }
+            pack = current;
+            offset = pack.size;
+            pack.size += length;
+            pack.writers++;
+        }
+        try {
+            encrypt(data, 0, length, pack.keyStream, offset);
+            final ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += pack.channel.write(buffer, position);
+            }
+        } finally {
+            release(pack);
+        }
+        return new Slot(rootPath.relativize(pack.path), offset, length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        seal(current);
+        current = null;
+    }
+
+    private Pack open() throws IOException {
+        final Path dir = rootPath.resolve(PACKS_DIR);
+        Files.createDirectories(dir);
+        while (true) {
+            final Path path = dir.resolve(getRandomName(PACK));
+            try {
+                return new Pack(path, FileChannel.open(path, WRITE, CREATE_NEW), keyStream.forBlob(path.getFileName().toString()));
+            } catch (FileAlreadyExistsException ex) {
+                //taken, try another name
+            }
+        }
+    }
+
+    //no more space is handed out from a sealed pack, it is closed once its last write is done
+    private synchronized void seal(final Pack pack) throws IOException {
+        if (pack == null) {
+            return;
+        }
+        pack.sealed = true;
+        if (pack.writers == 0) {
+            pack.channel.close();
+        }
+    }
+
+    private synchronized void release(final Pack pack) throws IOException {
+        pack.writers--;
+        if (pack.sealed && pack.writers == 0) {
+            pack.channel.close();
+        }
+    }
+
+    private static class Pack {
+        private final Path path;
+        private final FileChannel channel;
+        private final KeyStream keyStream;
+        private long size;
+        //appends that got space but have not finished writing
+        private int writers;
+        private boolean sealed;
+
+        private Pack(Path path, FileChannel channel, KeyStream keyStream) {
+            this.path = path;
+            this.channel = channel;
+            this.keyStream = keyStream;
+        }
+    }
+
+    public static class Slot {
+        //relative to the store root
+        private final Path pack;
+        private final long offset;
+        private final long length;
+
+        private Slot(Path pack, long offset, long length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public Path getPack() {
+            return pack;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package main.fs;
+
+import com.google.gson.Gson;
+import main.Utils.AesCtrKeyStream;
+import main.Utils.ChaCha20KeyStream;
+import main.Utils.KeyStream;
+import main.Utils.XorKeyStream;
+import main.enums.CipherType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static main.Utils.EncryptionUtils.deriveKey;
+import static main.Utils.EncryptionUtils.fromHex;
+import static main.Utils.EncryptionUtils.toHex;
+
+//cipher of a store and how its key is derived from the password, kept as json next to the root index.
+//stores without one were created before ciphers could be picked and are xor-ed with the raw password
+public class StoreConfig {
+    public static final String NAME = ".fs.cipher";
+    public static final CipherType DEFAULT_CIPHER = CipherType.AES_CTR;
+    private static final int ITERATIONS = 600_000;
+    private static final int SALT_SIZE = 16;
+    private static final Gson GSON = new Gson();
+
+    private String cipher;
+    //hex, null for xor
+    private String salt;
+    private Integer iterations;
+
+    public static void create(final Path rootPath, final CipherType type) throws IOException {
+        final StoreConfig config = new StoreConfig();
+        config.cipher = type.getId();
+        if (type != CipherType.XOR) {
+            final byte[] salt = new byte[SALT_SIZE];
+            new SecureRandom().nextBytes(salt);
+            config.salt = toHex(salt);
+            config.iterations = ITERATIONS;
+        }
+        Files.write(rootPath.resolve(NAME), GSON.toJson(config).getBytes(UTF_8), CREATE_NEW, WRITE);
+    }
+
+    public static CipherType cipherOf(final Path rootPath) throws IOException {
+        final StoreConfig config = read(rootPath);
+        return config == null ? CipherType.XOR : CipherType.fromId(config.cipher);
+    }
+
+    //key stream of the store at rootPath
+    static KeyStream open(final Path rootPath, final byte[] password) throws IOException {
+        final StoreConfig config = read(rootPath);
+        final CipherType type = config == null ? CipherType.XOR : CipherType.fromId(config.cipher);
+        switch (type) {
+            case AES_CTR:
+                return new AesCtrKeyStream(deriveKey(password, fromHex(config.salt), config.iterations));
+            case CHACHA20:
+                return new ChaCha20KeyStream(deriveKey(password, fromHex(config.salt), config.iterations));
+            default:
+                return new XorKeyStream(password);
+        }
+    }
+
+    private static StoreConfig read(final Path rootPath) throws IOException {
+        final Path path = rootPath.resolve(NAME);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        return GSON.fromJson(new String(Files.readAllBytes(path), UTF_8), StoreConfig.class);
+    }
+}
@@ -1,8 +1,11 @@
 package main.fs.beans;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 //this will we persisted on-disk
 public class Directory {
@@ -14,6 +17,25 @@ public class Directory {
     private final ConcurrentHashMap<String, Directory> dirs;
     //children files
     private final ConcurrentHashMap<String, FileInfo> files;
+    //set for directories whose children are read from the index only when first needed
+    private transient Loader loader;
+    //position of this directory in the index, for loader
+    private transient int record;
+    private transient Directory parent;
+    private transient volatile boolean loaded;
+    //changed since loaded, so it can not be dropped and read again from the index
+    private transient volatile boolean pinned;
+
+    public interface Loader {
+        //fills dir with the contents of its index record
+        void load(Directory dir);
+
+        //called on every access of a loaded directory
+        void accessed(Directory dir);
+
+        //called once dir is changed, from then on it stays in memory until the index is written again
+        void pinned(Directory dir);
+    }
 
     public Directory(String name, Path path) {
         this(name, path, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
@@ -26,59 +48,130 @@ public class Directory {
         this.files = files;
     }
 
+    //directory whose children are loaded by loader on first access
+    public static Directory lazy(String name, Path path, Directory parent, Loader loader, int record) {
+        final Directory dir = new Directory(name, path);
+        dir.parent = parent;
+        dir.loader = loader;
+        dir.record = record;
+        return dir;
+    }
+
     public Directory createDirIfAbsent(final String name) {
-        return dirs.computeIfAbsent(name, unused -> new Directory(name, this.path.resolve(name)));
+        return withLoaded(() -> dirs.computeIfAbsent(name, unused -> {
+            final Directory dir = new Directory(name, this.path.resolve(name));
+            dir.parent = this;
+            dir.markChanged();
+            return dir;
+        }));
     }
 
     public boolean createOrUpdateFile(final Path originalFile, final Path myPath) {
+        return createOrUpdateFile(originalFile, myPath, null, null, null);
+    }
+
+    //replaces the entry in place, returns true if the file was not present before
+    public boolean createOrUpdateFile(final Path originalFile, final Path myPath, final Long size, final Long modifiedTime, final String hash) {
         final String name = originalFile.getFileName().toString();
-        return files.putIfAbsent(name, new FileInfo(name, myPath, null, null)) == null;
+        return createOrUpdateFile(new FileInfo(name, myPath, null, null, size, modifiedTime, hash));
+    }
+
+    public boolean createOrUpdateFile(final FileInfo fileInfo) {
+        return putFile(fileInfo) == null;
+    }
+
+    //returns the entry that was replaced, null if there was none
+    public FileInfo putFile(final FileInfo fileInfo) {
+        return withLoaded(() -> {
+            markChanged();
+            return files.put(fileInfo.getName(), fileInfo);
+        });
     }
 
     public boolean createOrUpdateSymlinkFile(final Path originalFile, final Path myPath, final Path symlinkTarget, final boolean isInternal) {
         final String name = originalFile.getFileName().toString();
-        return files.putIfAbsent(name, new FileInfo(name, myPath, symlinkTarget.toString(), isInternal)) == null;
+        return createOrUpdateFile(new FileInfo(name, myPath, symlinkTarget.toString(), isInternal));
     }
 
     public boolean removeDir(final String name) {
-        return dirs.remove(name) != null;
+        return takeDir(name) != null;
+    }
+
+    //removes and returns the subdir, null if there was none
+    public Directory takeDir(final String name) {
+        return withLoaded(() -> {
+            markChanged();
+            return dirs.remove(name);
+        });
     }
 
     public boolean removeFile(final String name) {
-        return files.remove(name) != null;
+        return takeFile(name) != null;
     }
 
+    //removes and returns the file, null if there was none
+    public FileInfo takeFile(final String name) {
+        return withLoaded(() -> {
+            markChanged();
+            return files.remove(name);
+        });
+    }
+
+    //adds a file read from the index, without counting as a change
+    public void putLoadedFile(final FileInfo fileInfo) {
+        files.put(fileInfo.getName(), fileInfo);
+    }
+
+    //adds a subdir read from the index, without counting as a change. a subdir kept across unload wins
+    public void putLoadedDir(final Directory dir) {
+        dir.parent = this;
+        dirs.putIfAbsent(dir.getName(), dir);
+    }
+
+    //subdirs are counted outside the lock of this directory, see withLoaded
     public int getTotal() {
-        int count = files.size();
-        for (final Directory subdirs : dirs.values()) {
-            count += subdirs.getTotal();
+        final List<Directory> subdirs = new ArrayList<>();
+        int count = withLoaded(() -> {
+            subdirs.addAll(dirs.values());
+            return files.size();
+        });
+        for (final Directory subdir : subdirs) {
+            count += subdir.getTotal();
         }
         return count;
     }
 
     public Directory getDir(final String name) {
-        return dirs.get(name);
+        return withLoaded(() -> dirs.get(name));
+    }
+
+    public FileInfo getFile(final String name) {
+        return withLoaded(() -> files.get(name));
     }
 
     public void print() {
-        for (final Directory subdir : dirs.values()) {
-            System.out.println("[" + subdir.getName() + "]");
-        }
-        for (final FileInfo file : files.values()) {
-            System.out.println(file.getName());
-        }
+        withLoaded(() -> {
+            for (final Directory subdir : dirs.values()) {
+                System.out.println("[" + subdir.getName() + "]");
+            }
+            for (final FileInfo file : files.values()) {
+                System.out.println(file.getName());
+            }
+            return null;
+        });
     }
 
     public void setPath(Path path) {
         this.path = path;
     }
 
+    //a lazily loaded directory hands out a copy, another thread may drop its children while they are iterated
     public Collection<FileInfo> getAllFiles() {
-        return files.values();
+        return loader == null ? files.values() : withLoaded(() -> new ArrayList<>(files.values()));
     }
 
     public Collection<Directory> getAllSubDirs() {
-        return dirs.values();
+        return loader == null ? dirs.values() : withLoaded(() -> new ArrayList<>(dirs.values()));
     }
 
     public String getName() {
@@ -89,4 +182,65 @@ public class Directory {
         return path;
     }
 
+    public int getRecord() {
+        return record;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    //keeps this directory loaded for good, e.g. the root
+    public void pin() {
+        pinned = true;
+    }
+
+    //drops children of a lazily loaded directory, they are read again on next access.
+    //subdirs still loaded stay attached, so changes made through them are never lost
+    public synchronized void unload() {
+        if (loader == null || pinned) {
+            return;
+        }
+        loaded = false;
+        dirs.values().removeIf(dir -> !dir.loaded && !dir.pinned);
+        files.clear();
+    }
+
+    /*
+        runs action on the children, loading them first. for a lazily loaded directory it runs under the lock unload takes,
+        so the directory can not be dropped between being loaded and action being done with its children.
+        the access is recorded once the lock is released, as it may drop other directories and take their locks
+     */
+    private <T> T withLoaded(final Supplier<T> action) {
+        if (loader == null) {
+            return action.get();
+        }
+        final T result;
+        synchronized (this) {
+            if (!loaded) {
+                loaded = true;
+                try {
+                    loader.load(this);
+                } catch (RuntimeException ex) {
+                    loaded = false;
+                    dirs.clear();
+                    files.clear();
+                    throw ex;
+                }
+            }
+            result = action.get();
+        }
+        loader.accessed(this);
+        return result;
+    }
+
+    //a changed directory and all of its ancestors stay in memory until the index is written again
+    private void markChanged() {
+        for (Directory dir = this; dir != null && !dir.pinned; dir = dir.parent) {
+            dir.pinned = true;
+            if (dir.loader != null) {
+                dir.loader.pinned(dir);
+            }
+        }
+    }
 }
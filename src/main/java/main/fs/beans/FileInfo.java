@@ -1,6 +1,8 @@
 package main.fs.beans;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class FileInfo {
     //original file name
@@ -9,12 +11,51 @@ public class FileInfo {
     private final String encryptedFilePath;
     private final String symlinkTarget;
     private final Boolean isInternalSymlink;
+    //size and last modified time (millis) of the original file when it was encrypted, null for older entries
+    private final Long size;
+    private final Long modifiedTime;
+    //hex digest of the original contents, only present when hashing was enabled
+    private final String hash;
+    //ids of the transforms applied to contents before encryption, in order, null if none
+    private final List<String> transforms;
+    //where the stored bytes start and how many there are, for files appended to a pack at encryptedFilePath, null otherwise
+    private final Long packOffset;
+    private final Long packLength;
 
     public FileInfo(String name, Path encryptedFilePath, String symlinkTarget, Boolean isInternalSymlink) {
+        this(name, encryptedFilePath, symlinkTarget, isInternalSymlink, null, null, null);
+    }
+
+    public FileInfo(String name, Path encryptedFilePath, String symlinkTarget, Boolean isInternalSymlink, Long size, Long modifiedTime, String hash) {
+        this(name, encryptedFilePath, symlinkTarget, isInternalSymlink, size, modifiedTime, hash, null);
+    }
+
+    public FileInfo(String name, Path encryptedFilePath, String symlinkTarget, Boolean isInternalSymlink, Long size, Long modifiedTime, String hash, List<String> transforms) {
+        this(name, encryptedFilePath, symlinkTarget, isInternalSymlink, size, modifiedTime, hash, transforms, null, null);
+    }
+
+    public FileInfo(String name, Path encryptedFilePath, String symlinkTarget, Boolean isInternalSymlink, Long size, Long modifiedTime, String hash, List<String> transforms,
+                    Long packOffset, Long packLength) {
         this.name = name;
         this.encryptedFilePath = encryptedFilePath.toString();
         this.symlinkTarget = symlinkTarget;
         this.isInternalSymlink = isInternalSymlink;
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+        this.hash = hash;
+        this.transforms = transforms;
+        this.packOffset = packOffset;
+        this.packLength = packLength;
+    }
+
+    //same entry, touched at modifiedTime
+    public FileInfo withModifiedTime(Long modifiedTime) {
+        return new FileInfo(name, Paths.get(encryptedFilePath), symlinkTarget, isInternalSymlink, size, modifiedTime, hash, transforms, packOffset, packLength);
+    }
+
+    //same entry, with its stored bytes moved
+    public FileInfo withLocation(Path encryptedFilePath, Long packOffset, Long packLength) {
+        return new FileInfo(name, encryptedFilePath, symlinkTarget, isInternalSymlink, size, modifiedTime, hash, transforms, packOffset, packLength);
     }
 
     public String getName() {
@@ -29,6 +70,34 @@ public class FileInfo {
         return symlinkTarget;
     }
 
+    public Long getSize() {
+        return size;
+    }
+
+    public Long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public List<String> getTransforms() {
+        return transforms;
+    }
+
+    public Long getPackOffset() {
+        return packOffset;
+    }
+
+    public Long getPackLength() {
+        return packLength;
+    }
+
+    public boolean isPacked() {
+        return packOffset != null;
+    }
+
     public boolean isRegularFile() {
         return isInternalSymlink == null;
     }
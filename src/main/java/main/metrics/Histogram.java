@@ -0,0 +1,58 @@
+package main.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//latencies in nanos, counted in power of two buckets, so recording never locks and percentiles are within a factor of two
+public class Histogram {
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    //bucket b holds values below 2^b and at least 2^(b - 1)
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.increment();
+        total.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    //upper bound of the bucket holding the value below which quantile of the values fall
+    public long getPercentile(final double quantile) {
+        final long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                return Math.min(b == Long.SIZE ? Long.MAX_VALUE : 1L << b, max.get());
+            }
+        }
+        return max.get();
+    }
+}
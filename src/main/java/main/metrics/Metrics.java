@@ -0,0 +1,61 @@
+package main.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+//counters of one encrypt or decrypt run, updated by the workers and read by the reporter
+public class Metrics {
+    private final long startNanos = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    //work waiting for a worker, set by the codec running
+    private volatile LongSupplier queueDepth = () -> 0;
+
+    public Metrics() {
+        for (final Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+    }
+
+    //start of a phase, to be passed to record
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(final Phase phase, final long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    //bytes are the plain contents of the file, 0 when nothing had to be encrypted or decrypted
+    public void fileDone(final long fileBytes) {
+        files.increment();
+        bytes.add(fileBytes);
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getQueueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    public void setQueueDepth(final LongSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public Histogram getPhase(final Phase phase) {
+        return phases.get(phase);
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
@@ -0,0 +1,50 @@
+package main.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//end of run summary written as json, latencies in micros
+public class MetricsSummary {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private MetricsSummary() {
+    }
+
+    public static void write(final Metrics metrics, final String operation, final int threads, final Path path) {
+        final double seconds = Math.max(1, metrics.getElapsedNanos()) / 1e9;
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("operation", operation);
+        summary.put("threads", threads);
+        summary.put("seconds", seconds);
+        summary.put("files", metrics.getFiles());
+        summary.put("bytes", metrics.getBytes());
+        summary.put("filesPerSecond", metrics.getFiles() / seconds);
+        summary.put("bytesPerSecond", metrics.getBytes() / seconds);
+        final Map<String, Object> phases = new LinkedHashMap<>();
+        for (final Phase phase : Phase.values()) {
+            final Histogram histogram = metrics.getPhase(phase);
+            final Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", histogram.getCount());
+            stats.put("totalMicros", histogram.getTotal() / 1_000);
+            stats.put("meanMicros", histogram.getMean() / 1_000);
+            stats.put("p50Micros", histogram.getPercentile(0.5) / 1_000);
+            stats.put("p99Micros", histogram.getPercentile(0.99) / 1_000);
+            stats.put("maxMicros", histogram.getMax() / 1_000);
+            phases.put(phase.name().toLowerCase(), stats);
+        }
+        summary.put("phases", phases);
+        try (final Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            GSON.toJson(summary, writer);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error writing metrics to : " + path, ex);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package main.metrics;
+
+//steps every file goes through, timed separately
+public enum Phase {
+    STAT, READ, TRANSFORM, WRITE, INDEX
+}
@@ -0,0 +1,66 @@
+package main.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+//prints progress of a run at a fixed interval, however many files finish in between
+public class Reporter {
+    public static final long DEFAULT_INTERVAL_MILLIS = 5_000;
+
+    private final Metrics metrics;
+    private final String name;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //totals at the previous report, to print rates over the last interval
+    private long lastNanos;
+    private long lastFiles;
+    private long lastBytes;
+
+    public Reporter(Metrics metrics, String name, long intervalMillis) {
+        this.metrics = metrics;
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public Reporter start() {
+        lastNanos = metrics.getElapsedNanos();
+        scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    //prints totals and rates over the whole run
+    public void stop() {
+        scheduler.shutdownNow();
+        final double seconds = Math.max(1, metrics.getElapsedNanos()) / 1e9;
+        System.out.println(String.format("%s : %d files, %s in %.1fs, %.1f files/s, %s/s", name, metrics.getFiles(),
+                formatBytes(metrics.getBytes()), seconds, metrics.getFiles() / seconds, formatBytes((long) (metrics.getBytes() / seconds))));
+    }
+
+    private synchronized void report() {
+        final long nanos = metrics.getElapsedNanos();
+        final long files = metrics.getFiles();
+        final long bytes = metrics.getBytes();
+        final double seconds = Math.max(1, nanos - lastNanos) / 1e9;
+        System.out.println(String.format("%s : %d files, %s, %.1f files/s, %s/s, queue %d", name, files, formatBytes(bytes),
+                (files - lastFiles) / seconds, formatBytes((long) ((bytes - lastBytes) / seconds)), metrics.getQueueDepth()));
+        lastNanos = nanos;
+        lastFiles = files;
+        lastBytes = bytes;
+    }
+
+    static String formatBytes(final long bytes) {
+        if (bytes < 1L << 10) {
+            return bytes + " B";
+        } else if (bytes < 1L << 20) {
+            return String.format("%.1f KB", bytes / (double) (1L << 10));
+        } else if (bytes < 1L << 30) {
+            return String.format("%.1f MB", bytes / (double) (1L << 20));
+        }
+        return String.format("%.2f GB", bytes / (double) (1L << 30));
+    }
+}